@@ -0,0 +1,64 @@
+package com.kougianos.aggregator.queue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producers adding values, readers checking membership and a flusher draining batches, all on the same queue.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CustomQueueBenchmark {
+
+    private static final String[] VALUES = new String[4096];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = String.valueOf(100_000_000 + i);
+        }
+    }
+
+    private CustomQueue queue;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        String nextValue() {
+            return VALUES[next++ & (VALUES.length - 1)];
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        queue = new CustomQueue();
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(3)
+    public CustomQueue.AddResult add(Cursor cursor) {
+        return queue.addIfAbsent(cursor.nextValue(), 5);
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(2)
+    public boolean contains(Cursor cursor) {
+        return queue.contains(cursor.nextValue());
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(1)
+    public List<String> drain() {
+        return queue.drain();
+    }
+
+}
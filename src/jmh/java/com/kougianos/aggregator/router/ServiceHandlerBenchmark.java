@@ -0,0 +1,37 @@
+package com.kougianos.aggregator.router;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.web.reactive.function.server.ServerRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ServiceHandlerBenchmark {
+
+    private final ServiceHandler serviceHandler = new ServiceHandler(null, null, null, null, null);
+    private ServerRequest request;
+
+    @Setup
+    public void setup() {
+        request = MockServerRequest.builder()
+            .queryParam("pricing", "NL,CN,CH,GB,DE")
+            .queryParam("track", "117347282,109347263,123456891,219389201,813434811")
+            .queryParam("shipments", "117347282,109347263,123456891")
+            .queryParam("unknown", "value")
+            .build();
+    }
+
+    @Benchmark
+    public Map<String, List<String>> cleanQueryParameters() {
+        return serviceHandler.cleanQueryParameters(request);
+    }
+
+}
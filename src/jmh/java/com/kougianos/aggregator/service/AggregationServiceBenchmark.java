@@ -0,0 +1,107 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.cluster.ClusterDispatcher;
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.config.SchedulerConfig;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.kougianos.aggregator.dto.Constants.PRICING;
+import static com.kougianos.aggregator.dto.Constants.TRACK;
+
+/**
+ * One operation is a wave of {@code callers} concurrent /aggregation requests asking for 2 track and 1 pricing value
+ * each, until every one of them got its response. With {@code virtualThreads} the requests register their values on
+ * virtual threads instead of the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AggregationServiceBenchmark {
+
+    @Param({"1", "8", "64", "512", "10000"})
+    int callers;
+
+    @Param({"false", "true"})
+    boolean virtualThreads;
+
+    private final AtomicLong sequence = new AtomicLong(100_000_000);
+    private AggregationService aggregationService;
+    private BatchDispatcher batchDispatcher;
+    private ExecutorService executor;
+    private Scheduler aggregationScheduler;
+
+    @Setup
+    public void setup() {
+        var queueManager = new QueueManager();
+        var appProperties = new AppProperties();
+        appProperties.setVirtualThreads(virtualThreads);
+        var meterRegistry = new SimpleMeterRegistry();
+        var metrics = new AggregatorMetrics(meterRegistry, queueManager);
+        batchDispatcher = new BatchDispatcher(new StubExternalApiClient(), queueManager, appProperties, metrics,
+            new ResponseCache(appProperties, meterRegistry), new AdaptiveBatchController(appProperties, metrics),
+            Optional.empty());
+        aggregationScheduler = new SchedulerConfig(appProperties).aggregationScheduler();
+        var clusterDispatcher = new ClusterDispatcher(batchDispatcher, metrics, appProperties, WebClient.builder());
+        aggregationService = new AggregationService(batchDispatcher, clusterDispatcher, queueManager,
+            aggregationScheduler);
+        executor = Executors.newFixedThreadPool(Math.min(callers, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        aggregationScheduler.dispose();
+    }
+
+    @Benchmark
+    public void getAggregatedResponse(Blackhole blackhole) throws InterruptedException {
+        var submitted = new CountDownLatch(callers);
+        var completed = new CountDownLatch(callers);
+
+        for (int i = 0; i < callers; i++) {
+            var parameters = Map.of(TRACK, nextValues(2), PRICING, nextValues(1));
+            executor.execute(() -> {
+                aggregationService.getAggregatedResponse(parameters).subscribe(response -> {
+                    blackhole.consume(response);
+                    completed.countDown();
+                });
+                submitted.countDown();
+            });
+        }
+
+        // the scheduler is disabled, send the partial batches the last callers left behind. On virtual threads values
+        // are registered after subscribe returns, so keep flushing until everybody got a response
+        submitted.await();
+        do {
+            batchDispatcher.flush(TRACK);
+            batchDispatcher.flush(PRICING);
+        } while (!completed.await(1, TimeUnit.MILLISECONDS));
+    }
+
+    private List<String> nextValues(int count) {
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(String.valueOf(sequence.incrementAndGet()));
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.config.WebClientConfig;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.kougianos.aggregator.dto.Constants.TRACK;
+
+/**
+ * One operation is {@code calls} concurrent External API batches of 5 distinct values against a local MockWebServer,
+ * over HTTP/1.1 with a FIFO or LIFO pool, or multiplexed over h2c. The {@code default} baseline uses the shared pool of
+ * {@code HttpClient.create()}, as the client did before it got a dedicated one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExternalApiClientBenchmark {
+
+    @Param({"default", "http11-fifo", "http11-lifo", "h2c"})
+    String pool;
+
+    @Param({"1", "64"})
+    int calls;
+
+    private final AtomicLong sequence = new AtomicLong(100_000_000);
+    private MockWebServer server;
+    private ConnectionProvider connectionProvider;
+    private ExternalApiClient client;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new MockWebServer();
+        if (pool.equals("h2c")) {
+            server.setProtocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+        }
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                    .setHeader("Content-Type", "application/json")
+                    .setBody("{\"1\":\"NEW\",\"2\":\"COLLECTING\",\"3\":\"DELIVERING\"}");
+            }
+        });
+        server.start();
+
+        var externalApi = new AppProperties.ExternalApi();
+        externalApi.setUrl(server.url("/").toString());
+        externalApi.setReadTimeoutMillis(5000);
+        externalApi.setConnectTimeoutMillis(2000);
+        externalApi.getPool().setLifo(pool.equals("http11-lifo"));
+        externalApi.getPool().setH2c(pool.equals("h2c"));
+        var appProperties = new AppProperties();
+        appProperties.setExternalApi(externalApi);
+
+        var webClientConfig = new WebClientConfig(appProperties);
+        connectionProvider = webClientConfig.externalApiConnectionProvider();
+        var webClient = pool.equals("default")
+            ? WebClient.builder()
+                .baseUrl(externalApi.getUrl())
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create()))
+                .defaultHeader("Content-Type", "application/json")
+                .defaultHeader("Accept", "application/json")
+                .build()
+            : webClientConfig.webClient(connectionProvider);
+        client = new ExternalApiClient(webClient,
+            new AggregatorMetrics(new SimpleMeterRegistry(), new QueueManager()), appProperties);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connectionProvider.dispose();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        Flux.range(0, calls)
+            .flatMap(i -> client.get(TRACK, nextValues()), calls)
+            .doOnNext(blackhole::consume)
+            .blockLast();
+    }
+
+    private String nextValues() {
+        var first = sequence.getAndAdd(5);
+        return first + "," + (first + 1) + "," + (first + 2) + "," + (first + 3) + "," + (first + 4);
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.dto.GenericMap;
+import reactor.core.publisher.Mono;
+
+/**
+ * External API stand-in that answers every value of a batch immediately, so benchmarks measure the aggregator only.
+ */
+public class StubExternalApiClient extends ExternalApiClient {
+
+    public StubExternalApiClient() {
+        super(null, null, null);
+    }
+
+    @Override
+    public Mono<GenericMap> get(String path, String queryVariables) {
+        var response = new GenericMap();
+        for (var value : queryVariables.split(",")) {
+            response.put(value, "DELIVERED");
+        }
+        return Mono.just(response);
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.dto.GenericMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import static com.kougianos.aggregator.dto.Constants.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransformBenchmark {
+
+    @Param({"5", "500", "5000"})
+    int keys;
+
+    private final AggregationService aggregationService = new AggregationService(null, null, null, null);
+    private Object[] responseEntries;
+
+    @Setup
+    public void setup() {
+        responseEntries = new Object[]{response(TRACK), response(PRICING), response(SHIPMENTS)};
+    }
+
+    @Benchmark
+    public Map<String, GenericMap> transformToAggregatedResponse() {
+        return aggregationService.transformToAggregatedResponse(responseEntries);
+    }
+
+    private Entry<String, GenericMap> response(String apiName) {
+        var response = new GenericMap();
+        for (int i = 0; i < keys; i++) {
+            response.put(String.valueOf(100_000_000 + i), "DELIVERED");
+        }
+        return Map.entry(apiName, response);
+    }
+
+}
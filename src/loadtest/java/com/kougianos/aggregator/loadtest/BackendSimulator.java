@@ -0,0 +1,96 @@
+package com.kougianos.aggregator.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Stand-in for the External APIs, serving /pricing, /track and /shipments?q=... on one port.
+ * <p>
+ * Every call takes a log-normally distributed time around medianMillis, with sigma as its shape, and fails with a
+ * 503 with probability errorRate. For the first slowStartMillis after startup calls are up to slowStartFactor times
+ * slower, falling linearly to normal, like a backend with cold caches.
+ */
+public final class BackendSimulator implements AutoCloseable {
+
+    private static final List<String> APIS = List.of("pricing", "track", "shipments");
+    private static final List<String> STATUSES = List.of("NEW", "IN TRANSIT", "COLLECTING", "COLLECTED", "DELIVERING",
+        "DELIVERED");
+    private static final List<String> PRODUCTS = List.of("envelope", "box", "pallet");
+
+    public record Config(double medianMillis, double sigma, double errorRate, long slowStartMillis,
+                         double slowStartFactor) {
+    }
+
+    private final Config config;
+    private final DisposableServer server;
+    private final long startNanos = System.nanoTime();
+
+    public BackendSimulator(int port, Config config) {
+        this.config = config;
+        this.server = HttpServer.create()
+            .port(port)
+            .route(routes -> routes.get("/{api}", this::handle))
+            .bindNow();
+    }
+
+    public int port() {
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private Mono<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+        var api = request.param("api");
+        if (!APIS.contains(api)) {
+            return response.status(HttpResponseStatus.NOT_FOUND).send();
+        }
+        var values = new QueryStringDecoder(request.uri()).parameters().getOrDefault("q", List.of());
+        var random = ThreadLocalRandom.current();
+        var failed = random.nextDouble() < config.errorRate();
+        return Mono.delay(Duration.ofNanos(sampleLatencyNanos(random)))
+            .then(failed
+                ? response.status(HttpResponseStatus.SERVICE_UNAVAILABLE).send().then()
+                : response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                    .sendString(Mono.fromSupplier(() -> body(api, values)))
+                    .then());
+    }
+
+    private long sampleLatencyNanos(ThreadLocalRandom random) {
+        var millis = config.medianMillis() * Math.exp(config.sigma() * random.nextGaussian());
+        var elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        if (elapsedMillis < config.slowStartMillis()) {
+            millis *= 1 + (config.slowStartFactor() - 1) * (1 - (double) elapsedMillis / config.slowStartMillis());
+        }
+        return (long) (millis * 1_000_000);
+    }
+
+    private static String body(String api, List<String> queryValues) {
+        var random = ThreadLocalRandom.current();
+        return queryValues.stream()
+            .flatMap(values -> List.of(values.split(",")).stream())
+            .distinct()
+            .map(value -> '"' + value + "\":" + switch (api) {
+                case "pricing" -> String.valueOf(Math.round(random.nextDouble(1, 100) * 100) / 100.0);
+                case "track" -> '"' + STATUSES.get(random.nextInt(STATUSES.size())) + '"';
+                default -> random.ints(random.nextInt(4), 0, PRODUCTS.size())
+                    .mapToObj(product -> '"' + PRODUCTS.get(product) + '"')
+                    .collect(Collectors.joining(",", "[", "]"));
+            })
+            .collect(Collectors.joining(",", "{", "}"));
+    }
+
+}
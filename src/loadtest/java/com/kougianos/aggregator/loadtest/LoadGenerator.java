@@ -0,0 +1,148 @@
+package com.kougianos.aggregator.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Open-model load: requests are started at a fixed rate whether or not earlier ones have completed, the way
+ * independent users arrive. Latency is measured from the time a request was due, not from when it was sent, so a
+ * stalled generator or server shows up in the histogram instead of hiding as a lower rate.
+ */
+public final class LoadGenerator {
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(5);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @param statuses   the number of responses per HTTP status.
+     * @param incomplete 2xx responses with a null or missing section for an API the request asked for.
+     * @param errors     requests that failed without a response.
+     * @param sendTime   the time it took to send all requests, which is longer than the duration if the generator
+     *                   fell behind.
+     */
+    public record Result(Histogram latencyMicros, long requests, Map<Integer, Long> statuses, long incomplete,
+                         long errors, long timeouts, Duration sendTime) {
+
+        /**
+         * @return requests answered with a status other than 2xx, or that failed without a response.
+         */
+        public long transportFailures() {
+            var failures = errors;
+            for (var entry : statuses.entrySet()) {
+                if (entry.getKey() < 200 || entry.getKey() >= 300) {
+                    failures += entry.getValue();
+                }
+            }
+            return failures;
+        }
+    }
+
+    private final HttpClient client;
+
+    public LoadGenerator(String baseUrl) {
+        var provider = ConnectionProvider.builder("loadtest")
+            .maxConnections(20_000)
+            .pendingAcquireMaxCount(-1)
+            .build();
+        this.client = HttpClient.create(provider).baseUrl(baseUrl);
+    }
+
+    /**
+     * Sends ratePerSecond * duration requests to the uris of the supplier and waits up to timeout for the last ones.
+     * Requests that take longer than timeout are counted as timeouts and recorded with the timeout as latency.
+     */
+    public Result run(double ratePerSecond, Duration duration, Duration timeout, Supplier<String> uris)
+        throws InterruptedException {
+        var histogram = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+        Map<Integer, LongAdder> statuses = new ConcurrentSkipListMap<>();
+        var incomplete = new AtomicLong();
+        var errors = new AtomicLong();
+        var timeouts = new AtomicLong();
+        var requests = (long) (ratePerSecond * duration.toMillis() / 1000);
+        var intervalNanos = (long) (1_000_000_000 / ratePerSecond);
+        var completed = new CountDownLatch((int) requests);
+        var start = System.nanoTime();
+
+        for (long i = 0; i < requests; i++) {
+            var dueNanos = start + i * intervalNanos;
+            var delay = dueNanos - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            var uri = uris.get();
+            client.get()
+                .uri(uri)
+                .responseSingle((response, body) -> body.asString()
+                    .defaultIfEmpty("")
+                    .map(content -> new Response(response.status().code(), content)))
+                .timeout(timeout)
+                .subscribe(
+                    response -> {
+                        statuses.computeIfAbsent(response.status(), key -> new LongAdder()).increment();
+                        if (response.status() / 100 == 2 && !isComplete(uri, response.body())) {
+                            incomplete.incrementAndGet();
+                        }
+                        record(histogram, dueNanos);
+                        completed.countDown();
+                    },
+                    error -> {
+                        if (error instanceof TimeoutException) {
+                            timeouts.incrementAndGet();
+                        } else {
+                            errors.incrementAndGet();
+                        }
+                        record(histogram, dueNanos);
+                        completed.countDown();
+                    });
+        }
+        var sendTime = Duration.ofNanos(System.nanoTime() - start);
+        completed.await(timeout.toMillis() + 1000, TimeUnit.MILLISECONDS);
+        Map<Integer, Long> statusCounts = new TreeMap<>();
+        statuses.forEach((status, count) -> statusCounts.put(status, count.sum()));
+        return new Result(histogram, requests, statusCounts, incomplete.get(), errors.get(), timeouts.get(),
+            sendTime);
+    }
+
+    /**
+     * @return false if a section the uri asked for is missing from the body or null, which is how the aggregator
+     * answers a backend error, an expired deadline or an open circuit breaker with a 200.
+     */
+    static boolean isComplete(String uri, String body) {
+        try {
+            var json = MAPPER.readTree(body);
+            for (var parameter : uri.substring(uri.indexOf('?') + 1).split("&")) {
+                var section = json.get(parameter.substring(0, parameter.indexOf('=')));
+                if (section == null || section.isNull()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (JsonProcessingException e) {
+            return false;
+        }
+    }
+
+    private static void record(Histogram histogram, long dueNanos) {
+        histogram.recordValue(Math.min(HIGHEST_MICROS, (System.nanoTime() - dueNanos) / 1000));
+    }
+
+    private record Response(int status, String body) {
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.kougianos.aggregator.loadtest;
+
+import com.kougianos.aggregator.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Drives /aggregation of an aggregator backed by a {@link BackendSimulator} with open-model load, and checks the
+ * latency of the requests against the SLA. Everything runs in this process unless --target points to an aggregator
+ * that is already running.
+ * <p>
+ * Options are passed as --name=value, see {@link #DEFAULTS}. Options starting with --app. or --server. configure the
+ * aggregator. The latency distribution is written to target/loadtest/aggregation.hgrm, and the process exits with 1
+ * if the SLA percentile of the latency exceeds sla-millis, any request timed out, or the share of failed requests
+ * exceeds max-failure-rate. Failed requests are non-2xx responses, connection errors, and responses with a null or
+ * missing section for an API the request asked for.
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+        Map.entry("rate", "50"),
+        Map.entry("duration-seconds", "60"),
+        Map.entry("timeout-seconds", "30"),
+        Map.entry("sla-millis", "10000"),
+        Map.entry("sla-percentile", "100"),
+        Map.entry("max-failure-rate", "0"),
+        Map.entry("max-values", "5"),
+        Map.entry("keys", "10000"),
+        Map.entry("latency-median-millis", "200"),
+        Map.entry("latency-sigma", "0.5"),
+        Map.entry("error-rate", "0.01"),
+        Map.entry("slow-start-millis", "10000"),
+        Map.entry("slow-start-factor", "5"),
+        Map.entry("target", ""));
+    private static final List<String> COUNTRIES = List.of("NL", "CN", "CH", "GB", "DE", "FR", "BE", "ES", "IT", "PL",
+        "US", "CA", "MX", "BR", "JP", "KR", "IN", "AU", "SE", "NO");
+    private static final Path REPORT = Path.of("target", "loadtest", "aggregation.hgrm");
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        List<String> applicationArgs = new ArrayList<>();
+        for (var arg : args) {
+            if (arg.startsWith("--app.") || arg.startsWith("--server.")) {
+                applicationArgs.add(arg);
+                continue;
+            }
+            var option = arg.replaceFirst("^--", "").split("=", 2);
+            if (!DEFAULTS.containsKey(option[0]) || option.length < 2) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + DEFAULTS.keySet());
+            }
+            options.put(option[0], option[1]);
+        }
+
+        var target = options.get("target");
+        BackendSimulator backend = null;
+        ConfigurableApplicationContext aggregator = null;
+        if (target.isEmpty()) {
+            backend = new BackendSimulator(0, new BackendSimulator.Config(
+                Double.parseDouble(options.get("latency-median-millis")),
+                Double.parseDouble(options.get("latency-sigma")),
+                Double.parseDouble(options.get("error-rate")),
+                Long.parseLong(options.get("slow-start-millis")),
+                Double.parseDouble(options.get("slow-start-factor"))));
+            var port = freePort();
+            applicationArgs.add(0, "--server.port=" + port);
+            applicationArgs.add(1, "--app.external-api.url=http://localhost:" + backend.port());
+            applicationArgs.add(2, "--app.enable-queue-scheduler=true");
+            aggregator = new SpringApplicationBuilder(Application.class).run(applicationArgs.toArray(String[]::new));
+            target = "http://localhost:" + port;
+        }
+
+        boolean passed;
+        try {
+            var rate = Double.parseDouble(options.get("rate"));
+            var duration = Duration.ofSeconds(Long.parseLong(options.get("duration-seconds")));
+            var maxValues = Integer.parseInt(options.get("max-values"));
+            var keys = Integer.parseInt(options.get("keys"));
+            System.out.printf("Sending %.0f requests/s to %s for %s%n", rate, target, duration);
+
+            var result = new LoadGenerator(target).run(rate, duration,
+                Duration.ofSeconds(Long.parseLong(options.get("timeout-seconds"))), () -> uri(maxValues, keys));
+
+            passed = report(result, Long.parseLong(options.get("sla-millis")),
+                Double.parseDouble(options.get("sla-percentile")), Double.parseDouble(options.get("max-failure-rate")));
+        } finally {
+            if (aggregator != null) {
+                aggregator.close();
+            }
+            if (backend != null) {
+                backend.close();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Every request asks all three APIs for 1 to maxValues values, order numbers are drawn from keys values.
+     */
+    private static String uri(int maxValues, int keys) {
+        var random = ThreadLocalRandom.current();
+        var pricing = new StringJoiner(",");
+        var track = new StringJoiner(",");
+        var shipments = new StringJoiner(",");
+        for (int i = random.nextInt(maxValues); i >= 0; i--) {
+            pricing.add(COUNTRIES.get(random.nextInt(COUNTRIES.size())));
+            track.add(String.valueOf(100_000_000 + random.nextInt(keys)));
+            shipments.add(String.valueOf(100_000_000 + random.nextInt(keys)));
+        }
+        return "/aggregation?pricing=" + pricing + "&track=" + track + "&shipments=" + shipments;
+    }
+
+    private static boolean report(LoadGenerator.Result result, long slaMillis, double slaPercentile,
+                                  double maxFailureRate) throws IOException {
+        var histogram = result.latencyMicros();
+        Files.createDirectories(REPORT.getParent());
+        try (var out = new PrintStream(Files.newOutputStream(REPORT))) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+
+        var slaLatencyMillis = histogram.getValueAtPercentile(slaPercentile) / 1000;
+        var failures = result.transportFailures() + result.incomplete();
+        var failureRate = (double) failures / Math.max(1, result.requests());
+        var slaMet = slaLatencyMillis <= slaMillis;
+        var passed = slaMet && result.timeouts() == 0 && failureRate <= maxFailureRate;
+        System.out.printf("""
+                Requests: %d sent in %ds (%.1f/s), statuses: %s, errors: %d, timeouts: %d
+                Latency ms: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f
+                Failures: %d (%.2f%%, budget %.2f%%): %d non-2xx or errors, %d with null or missing sections
+                SLA p%s <= %dms: %s (%dms)
+                Result: %s
+                Distribution written to %s
+                """,
+            result.requests(), result.sendTime().toSeconds(),
+            result.requests() * 1000.0 / Math.max(1, result.sendTime().toMillis()), result.statuses(), result.errors(),
+            result.timeouts(),
+            histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+            histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+            histogram.getMaxValue() / 1000.0,
+            failures, failureRate * 100, maxFailureRate * 100, result.transportFailures(), result.incomplete(),
+            slaPercentile, slaMillis, slaMet ? "MET" : "MISSED", slaLatencyMillis, passed ? "PASSED" : "FAILED",
+            REPORT);
+        return passed;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.kougianos.aggregator.cluster;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.dto.Deadline;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.dto.Priority;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import com.kougianos.aggregator.service.BatchDispatcher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Front of the {@link BatchDispatcher} in cluster mode, see {@link AppProperties.Cluster}. Values this instance owns
+ * are batched locally, the others are forwarded to their owner, which batches them with its own traffic and answers
+ * with their slices. Values of an unreachable owner are batched locally instead.
+ * Without cluster mode every value is submitted locally.
+ */
+@Service
+@Slf4j
+public class ClusterDispatcher {
+
+    public static final String FORWARD_PATH = "/internal/aggregation/{apiName}";
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    private final BatchDispatcher batchDispatcher;
+    private final AggregatorMetrics metrics;
+    private final AppProperties.Cluster cluster;
+    private final HashRing ring;
+    private final Map<String, WebClient> peers = new HashMap<>();
+
+    public ClusterDispatcher(BatchDispatcher batchDispatcher, AggregatorMetrics metrics, AppProperties appProperties,
+                             WebClient.Builder webClientBuilder) {
+        this.batchDispatcher = batchDispatcher;
+        this.metrics = metrics;
+        this.cluster = appProperties.getCluster();
+        if (!cluster.isEnabled()) {
+            this.ring = null;
+            return;
+        }
+        if (!cluster.getPeers().contains(cluster.getSelf())) {
+            throw new IllegalStateException("app.cluster.self " + cluster.getSelf() + " is not one of the peers");
+        }
+        if (cluster.getSecret() == null || cluster.getSecret().isBlank()) {
+            throw new IllegalStateException("app.cluster.secret is required in cluster mode");
+        }
+        this.ring = new HashRing(cluster.getPeers(), cluster.getVirtualNodes());
+        cluster.getPeers().forEach(peer -> peers.put(peer, webClientBuilder.clone().baseUrl(peer).build()));
+        log.info("Cluster mode as {} with peers {}", cluster.getSelf(), cluster.getPeers());
+    }
+
+    public Mono<GenericMap> submit(String apiName, Collection<String> values) {
+        return submit(apiName, values, Priority.NORMAL, Deadline.NONE);
+    }
+
+    /**
+     * Same contract as {@link BatchDispatcher#submit}, with the slices of every owner merged into one response.
+     * The priority and the remaining time budget are forwarded along with the values.
+     */
+    public Mono<GenericMap> submit(String apiName, Collection<String> values, Priority priority, long deadline) {
+        if (ring == null) {
+            return batchDispatcher.submit(apiName, values, priority, deadline);
+        }
+        Map<String, List<String>> valuesByOwner = new HashMap<>();
+        for (var value : values) {
+            valuesByOwner.computeIfAbsent(ring.ownerOf(apiName, value), owner -> new ArrayList<>()).add(value);
+        }
+        if (valuesByOwner.size() == 1 && valuesByOwner.containsKey(cluster.getSelf())) {
+            return batchDispatcher.submit(apiName, values, priority, deadline);
+        }
+
+        List<Mono<GenericMap>> parts = new ArrayList<>(valuesByOwner.size());
+        valuesByOwner.forEach((owner, ownedValues) -> parts.add(owner.equals(cluster.getSelf())
+            ? batchDispatcher.submit(apiName, ownedValues, priority, deadline)
+            : forward(owner, apiName, ownedValues, priority, deadline)));
+        return Mono.zip(parts, responses -> {
+            var response = GenericMap.withExpectedSize(values.size());
+            for (var part : responses) {
+                response.putAll((GenericMap) part);
+            }
+            return response;
+        });
+    }
+
+    private Mono<GenericMap> forward(String owner, String apiName, List<String> values, Priority priority,
+                                     long deadline) {
+        metrics.recordForwardedValues(apiName, values.size());
+        return peers.get(owner)
+            .post()
+            .uri(FORWARD_PATH, apiName)
+            .header(SECRET_HEADER, cluster.getSecret())
+            .header(Priority.HEADER, priority.name())
+            .headers(headers -> {
+                if (deadline != Deadline.NONE) {
+                    headers.set(Deadline.HEADER, String.valueOf(Math.max(1, Deadline.remainingMillis(deadline))));
+                }
+            })
+            .bodyValue(values)
+            .retrieve()
+            .bodyToMono(GenericMap.class)
+            .timeout(Duration.ofMillis(cluster.getForwardTimeoutMillis()))
+            .onErrorResume(WebClientRequestException.class, e -> {
+                log.warn("Peer {} is unreachable, batching {} {} values locally", owner, values.size(), apiName);
+                return batchDispatcher.submit(apiName, values, priority, deadline);
+            })
+            .onErrorResume(e -> {
+                log.warn("Error forwarding {} values to {}\nCause: ", apiName, owner, e);
+                return Mono.just(new GenericMap());
+            })
+            .defaultIfEmpty(new GenericMap());
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.kougianos.aggregator.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring over the peers of the cluster. Every peer is placed on the ring at virtualNodes points, and a
+ * key is owned by the first peer clockwise from its hash. Adding or removing a peer only moves the keys of the ring
+ * segments it gains or loses, and every instance built from the same peers agrees on every owner.
+ */
+public final class HashRing {
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    public HashRing(Collection<String> peers, int virtualNodes) {
+        if (peers.isEmpty()) {
+            throw new IllegalArgumentException("Hash ring needs at least one peer");
+        }
+        for (var peer : peers) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(peer + '#' + i), peer);
+            }
+        }
+    }
+
+    public String ownerOf(String apiName, String value) {
+        var entry = ring.ceilingEntry(hash(apiName + '?' + value));
+        return (entry == null ? ring.firstEntry() : entry).getValue();
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes with the murmur3 finalizer, so similar keys like consecutive ids spread evenly.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
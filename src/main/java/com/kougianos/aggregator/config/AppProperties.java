@@ -4,19 +4,220 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.kougianos.aggregator.dto.Constants.QUEUE_SIZE;
+
 @Data
 @Configuration
 @ConfigurationProperties(prefix = "app")
 public class AppProperties {
 
+    private static final FlushPolicy DEFAULT_FLUSH_POLICY = new FlushPolicy();
+    private static final CachePolicy DEFAULT_CACHE_POLICY = new CachePolicy();
+
     private ExternalApi externalApi;
     private boolean enableQueueScheduler;
+    // run the batching path of requests on virtual threads instead of the event loop that received them
+    private boolean virtualThreads;
+    private Map<String, FlushPolicy> batching = new HashMap<>();
+    private Map<String, CachePolicy> cache = new HashMap<>();
+    private Limiter limiter = new Limiter();
+    private Cluster cluster = new Cluster();
+    private Journal journal = new Journal();
+    private AccessLog accessLog = new AccessLog();
+    private Deadline deadline = new Deadline();
+
+    public FlushPolicy getFlushPolicy(String apiName) {
+        return batching.getOrDefault(apiName, DEFAULT_FLUSH_POLICY);
+    }
+
+    public CachePolicy getCachePolicy(String apiName) {
+        return cache.getOrDefault(apiName, DEFAULT_CACHE_POLICY);
+    }
 
     @Data
     public static class ExternalApi {
         private String url;
         private int readTimeoutMillis;
         private int connectTimeoutMillis;
+        // index response bodies as raw JSON slices instead of decoding them, and write them back as they are
+        private boolean rawJson;
+        private Pool pool = new Pool();
+        private CircuitBreakerPolicy circuitBreaker = new CircuitBreakerPolicy();
+        private HedgePolicy hedge = new HedgePolicy();
+    }
+
+    /**
+     * Per API circuit breaker of the External API client. After failureThreshold consecutive failed calls every call
+     * is answered empty right away for openMillis, then a single probe call decides whether it closes again.
+     */
+    @Data
+    public static class CircuitBreakerPolicy {
+        private boolean enabled = true;
+        private int failureThreshold = 5;
+        private long openMillis = 5000;
+    }
+
+    /**
+     * Hedged External API calls. When a call has not answered after the given latency percentile of the last
+     * windowSize calls of its API (but at least minDelayMillis), a duplicate is sent and the first response wins.
+     * No call is hedged before the API has minSamples latencies.
+     */
+    @Data
+    public static class HedgePolicy {
+        private boolean enabled;
+        private double percentile = 0.95;
+        private long minDelayMillis = 50;
+        private int minSamples = 20;
+        private int windowSize = 200;
+    }
+
+    /**
+     * Connection pool of the External API client. Connections are leased FIFO unless lifo is set, which keeps the
+     * pool on the fewest, warmest connections. With h2c, requests are multiplexed over cleartext HTTP/2 with prior
+     * knowledge, so the backend must support it.
+     */
+    @Data
+    public static class Pool {
+        private int maxConnections = 500;
+        private int pendingAcquireMaxCount = 1000;
+        private long pendingAcquireTimeoutMillis = 5000;
+        private long maxIdleTimeMillis = 30_000;
+        private long maxLifeTimeMillis = 300_000;
+        private long evictInBackgroundMillis = 30_000;
+        private boolean lifo;
+        private boolean h2c;
+        // initializes event loops, resolver and codecs at startup instead of on the first request
+        private boolean warmup = true;
+        // connections opened at startup with HEAD requests to the base url, best effort
+        private int warmupConnections;
+    }
+
+    /**
+     * When a batch of an API is sent to the External API: as soon as it holds maxBatchSize values,
+     * or maxLingerMillis after its first value was queued (only with the queue scheduler enabled),
+     * with at most maxInFlightBatches calls to that API running at the same time.
+     * A batch holding a value of a high priority request is sent priorityLingerMillis after that request, right away
+     * for 0, together with every other value queued by then.
+     */
+    @Data
+    public static class FlushPolicy {
+        private int maxBatchSize = QUEUE_SIZE;
+        private long maxLingerMillis = 5000;
+        private int maxInFlightBatches = 4;
+        private long priorityLingerMillis;
+        private AdaptivePolicy adaptive = new AdaptivePolicy();
+    }
+
+    /**
+     * AIMD tuning of the batch size and linger of an API. Both start from the flush policy, grow additively while
+     * External API latency stays flat, and are halved on errors or when the p99 end-to-end latency of the last
+     * windowSize batches exceeds targetP99Millis. The linger never grows past the maxLingerMillis of the flush policy.
+     */
+    @Data
+    public static class AdaptivePolicy {
+        private boolean enabled;
+        private int minBatchSize = 1;
+        private int maxBatchSize = 4 * QUEUE_SIZE;
+        private long minLingerMillis = 100;
+        private long targetP99Millis = 8000;
+        private int windowSize = 100;
+    }
+
+    /**
+     * Response cache of an API, keyed by individual value. Disabled while ttlMillis is 0.
+     * With cacheEmptyResults, values the External API did not return are cached as well,
+     * unless the whole response was empty since that is what errors look like.
+     */
+    @Data
+    public static class CachePolicy {
+        private long ttlMillis;
+        private long maxEntries = 10_000;
+        private boolean cacheEmptyResults;
+    }
+
+    /**
+     * Admission control of /aggregation. The concurrency limit starts at initialLimit and follows the gradient between
+     * the long-term and the latest request latency, within minLimit and maxLimit. Latency may grow by the tolerance
+     * factor before the limit shrinks. Requests over the limit, or asking for an API that already has its bulkhead of
+     * requests in flight, are rejected with 503 and a Retry-After of retryAfterSeconds. Bulk lookups are admitted
+     * up to bulkLimit at a time instead, and their latency does not move the limit.
+     */
+    @Data
+    public static class Limiter {
+        private static final int DEFAULT_BULKHEAD = 200;
+
+        private boolean enabled = true;
+        private int initialLimit = 50;
+        private int minLimit = 20;
+        private int maxLimit = 1000;
+        private double tolerance = 1.5;
+        private int bulkLimit = 4;
+        private long retryAfterSeconds = 1;
+        private Map<String, Integer> bulkhead = new HashMap<>();
+
+        public int getBulkhead(String apiName) {
+            return bulkhead.getOrDefault(apiName, DEFAULT_BULKHEAD);
+        }
+    }
+
+    /**
+     * Cluster-wide batching over a static list of aggregator instances. Every (api, value) is owned by one peer of a
+     * consistent hash ring with virtualNodes points per peer, and the other instances forward it there, so batches
+     * fill with the traffic of the whole cluster. self is the url of this instance as it appears in peers, and every
+     * instance must list the same peers. Forwarded values are only accepted with the shared secret of the cluster in
+     * the X-Cluster-Secret header.
+     */
+    @Data
+    public static class Cluster {
+        private boolean enabled;
+        private String self;
+        private List<String> peers = new ArrayList<>();
+        private int virtualNodes = 128;
+        private long forwardTimeoutMillis = 10_000;
+        private String secret;
+    }
+
+    /**
+     * Time budget of /aggregation requests without an X-Timeout-Millis header, none for 0. A batch is sent
+     * flushReserveMillis before the tightest deadline of its values (only with the queue scheduler enabled), and its
+     * External API call gets the latest deadline of its values as timeout.
+     */
+    @Data
+    public static class Deadline {
+        private long defaultMillis = 10_000;
+        private long flushReserveMillis = 2_000;
+    }
+
+    /**
+     * Sampling of the access log, every sampleEvery-th request is logged (none for 0) and every request that took at
+     * least slowMillis, with its body cut at maxBodyLength characters.
+     */
+    @Data
+    public static class AccessLog {
+        private int sampleEvery = 100;
+        private long slowMillis = 10_000;
+        private int maxBodyLength = 1024;
+    }
+
+    /**
+     * Optional memory-mapped journal of the queues. Values still queued or in flight when the process stops are sent
+     * again on startup, and values beyond spillThreshold per API overflow to a spill file of spillBytes instead of
+     * the heap. One journal segment of segmentBytes per API is kept in directory. Values of failed calls stay in the
+     * journal up to maxUnanswered per API, the ones beyond it are dropped.
+     */
+    @Data
+    public static class Journal {
+        private boolean enabled;
+        private String directory = "journal";
+        private int segmentBytes = 64 * 1024 * 1024;
+        private int spillThreshold = 10_000;
+        private int spillBytes = 64 * 1024 * 1024;
+        private int maxUnanswered = 100_000;
     }
 
 }
@@ -0,0 +1,32 @@
+package com.kougianos.aggregator.config;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+@Configuration
+@RequiredArgsConstructor
+@Slf4j
+public class SchedulerConfig {
+
+    private final AppProperties appProperties;
+
+    /**
+     * Where aggregation requests register their values and wait for their slices. By default that is the event loop
+     * that received the request, since nothing on that path blocks. With virtual threads every request gets its own.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler aggregationScheduler() {
+        if (!appProperties.isVirtualThreads()) {
+            return Schedulers.immediate();
+        }
+        log.info("Aggregation runs on virtual threads");
+        return Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "aggregation");
+    }
+
+}
@@ -3,28 +3,60 @@ package com.kougianos.aggregator.config;
 import io.netty.channel.ChannelOption;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
 @Configuration
 @RequiredArgsConstructor
+@Slf4j
 public class WebClientConfig {
 
     private final AppProperties appProperties;
 
+    /**
+     * Pool metrics are published as reactor.netty.connection.provider.* meters.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider externalApiConnectionProvider() {
+        var pool = appProperties.getExternalApi().getPool();
+        var builder = ConnectionProvider.builder("external-api")
+            .maxConnections(pool.getMaxConnections())
+            .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+            .pendingAcquireTimeout(Duration.ofMillis(pool.getPendingAcquireTimeoutMillis()))
+            .maxIdleTime(Duration.ofMillis(pool.getMaxIdleTimeMillis()))
+            .maxLifeTime(Duration.ofMillis(pool.getMaxLifeTimeMillis()))
+            .evictInBackground(Duration.ofMillis(pool.getEvictInBackgroundMillis()))
+            .metrics(true);
+        return (pool.isLifo() ? builder.lifo() : builder.fifo()).build();
+    }
+
     @Bean
-    public WebClient webClient() {
-        HttpClient httpClient = HttpClient.create()
+    public WebClient webClient(ConnectionProvider externalApiConnectionProvider) {
+        var pool = appProperties.getExternalApi().getPool();
+        HttpClient httpClient = HttpClient.create(externalApiConnectionProvider)
+            .protocol(pool.isH2c() ? HttpProtocol.H2C : HttpProtocol.HTTP11)
             .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, appProperties.getExternalApi().getConnectTimeoutMillis())
-            .doOnConnected(connection ->
+            // per request, handlers added on connect do not survive the connection going back to the pool
+            .doOnRequest((request, connection) ->
                 connection.addHandlerLast(new ReadTimeoutHandler(appProperties.getExternalApi().getReadTimeoutMillis(),
                     TimeUnit.MILLISECONDS)));
 
+        if (pool.isWarmup()) {
+            httpClient.warmup().block();
+            warmupConnections(httpClient, pool.getWarmupConnections());
+        }
+
         return WebClient.builder()
             .baseUrl(appProperties.getExternalApi().getUrl())
             .clientConnector(new ReactorClientHttpConnector(httpClient))
@@ -32,4 +64,19 @@ public class WebClientConfig {
             .defaultHeader("Accept", "application/json")
             .build();
     }
+
+    private void warmupConnections(HttpClient httpClient, int connections) {
+        if (connections <= 0) {
+            return;
+        }
+        Flux.range(0, connections)
+            .flatMap(i -> httpClient.head()
+                .uri(appProperties.getExternalApi().getUrl())
+                .response()
+                .onErrorResume(e -> {
+                    log.debug("Could not open warm-up connection to the External API", e);
+                    return Mono.empty();
+                }), connections)
+            .subscribe();
+    }
 }
@@ -0,0 +1,44 @@
+package com.kougianos.aggregator.dto;
+
+/**
+ * Deadlines of requests, as epoch millis like the queue timestamps. Requests carry their remaining time budget in the
+ * X-Timeout-Millis header, those without one get the default of
+ * {@link com.kougianos.aggregator.config.AppProperties.Deadline}.
+ */
+public final class Deadline {
+
+    public static final String HEADER = "X-Timeout-Millis";
+    /**
+     * The request waits for as long as it takes.
+     */
+    public static final long NONE = Long.MAX_VALUE;
+
+    private Deadline() {
+        throw new IllegalStateException("Constants class");
+    }
+
+    /**
+     * @return the deadline for the budget in the header, or for defaultMillis if the header is missing or not a
+     * positive number. NONE if there is no budget at all.
+     */
+    public static long fromHeader(String header, long defaultMillis) {
+        var budget = defaultMillis;
+        if (header != null) {
+            try {
+                var millis = Long.parseLong(header.trim());
+                budget = millis > 0 ? millis : defaultMillis;
+            } catch (NumberFormatException e) {
+                // default budget
+            }
+        }
+        return budget > 0 ? System.currentTimeMillis() + budget : NONE;
+    }
+
+    /**
+     * @return the millis left until the deadline, never negative.
+     */
+    public static long remainingMillis(long deadline) {
+        return deadline == NONE ? NONE : Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+}
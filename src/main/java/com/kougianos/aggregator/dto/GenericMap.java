@@ -10,4 +10,15 @@ public class GenericMap extends LinkedHashMap<String, Object> {
     public GenericMap(GenericMap value) {
         super(value);
     }
-}
\ No newline at end of file
+
+    /**
+     * Sized so that the expected number of entries fits without rehashing.
+     */
+    public static GenericMap withExpectedSize(int expectedSize) {
+        return new GenericMap((int) Math.ceil(expectedSize / 0.75));
+    }
+
+    private GenericMap(int initialCapacity) {
+        super(initialCapacity);
+    }
+}
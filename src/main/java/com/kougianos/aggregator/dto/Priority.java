@@ -0,0 +1,18 @@
+package com.kougianos.aggregator.dto;
+
+/**
+ * Priority of a request, from its X-Priority header. Values of a HIGH priority request do not wait for their batch to
+ * fill, see {@link com.kougianos.aggregator.config.AppProperties.FlushPolicy}.
+ */
+public enum Priority {
+    NORMAL, HIGH;
+
+    public static final String HEADER = "X-Priority";
+
+    /**
+     * @return HIGH for the header value "high" in any case, NORMAL for anything else or no header.
+     */
+    public static Priority fromHeader(String header) {
+        return "high".equalsIgnoreCase(header) ? HIGH : NORMAL;
+    }
+}
@@ -0,0 +1,50 @@
+package com.kougianos.aggregator.dto;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * External API response indexed instead of decoded: every top-level key maps to a {@link JsonSlice} of the body,
+ * nested values are never materialized.
+ */
+public class RawJsonMap extends GenericMap {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final transient byte[] body;
+
+    private RawJsonMap(byte[] body) {
+        this.body = body;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Indexes the top-level fields of a JSON object.
+     */
+    public static RawJsonMap parse(byte[] body) throws IOException {
+        var map = new RawJsonMap(body);
+        try (var parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "External API response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var key = parser.currentName();
+                parser.nextToken();
+                int start = (int) parser.currentTokenLocation().getByteOffset();
+                parser.skipChildren();
+                // strings are only read up to their opening quote until asked for
+                parser.finishToken();
+                int end = (int) parser.currentLocation().getByteOffset();
+                map.put(key, new JsonSlice(body, start, end - start));
+            }
+        }
+        return map;
+    }
+
+}
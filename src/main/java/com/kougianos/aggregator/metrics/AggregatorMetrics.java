@@ -0,0 +1,259 @@
+package com.kougianos.aggregator.metrics;
+
+import com.kougianos.aggregator.queue.CustomQueue;
+import com.kougianos.aggregator.queue.PendingKeyRegistry;
+import com.kougianos.aggregator.service.QueueManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * All meters of the aggregator, scraped in Prometheus format from /actuator/prometheus.
+ * Meters are tagged with the API name and cached per API, so recording never goes through the registry lookup.
+ */
+@Component
+public class AggregatorMetrics {
+
+    private static final String API = "api";
+
+    private final MeterRegistry registry;
+    private final Map<String, DistributionSummary> batchFillRatio = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> batchWaiters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> batchLinger = new ConcurrentHashMap<>();
+    private final Map<String, Timer> externalCalls = new ConcurrentHashMap<>();
+    private final Map<String, Counter> savedCalls = new ConcurrentHashMap<>();
+    private final Map<String, Counter> coalescedValues = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> batchSizeLimits = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> batchLingerLimits = new ConcurrentHashMap<>();
+    private final Map<String, Counter> shortCircuitedCalls = new ConcurrentHashMap<>();
+    private final Map<String, Counter> hedgedCalls = new ConcurrentHashMap<>();
+    private final Map<String, Counter> forwardedValues = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejectedRequests = new ConcurrentHashMap<>();
+    private final Map<String, Counter> priorityFlushes = new ConcurrentHashMap<>();
+    private final Map<String, Counter> expiredValues = new ConcurrentHashMap<>();
+    private final Map<String, Counter> journalDropped = new ConcurrentHashMap<>();
+    private final Timer aggregationRequests;
+
+    public AggregatorMetrics(MeterRegistry registry, QueueManager queueManager) {
+        this.registry = registry;
+
+        queueManager.getApiQueues().forEach((apiName, queue) ->
+            Gauge.builder("aggregator.queue.depth", queue, CustomQueue::size)
+                .description("Values waiting in the queue of the API")
+                .tag(API, apiName)
+                .register(registry));
+        queueManager.getPendingKeys().forEach((apiName, pendingKeys) ->
+            Gauge.builder("aggregator.pending.keys", pendingKeys, PendingKeyRegistry::size)
+                .description("Queued or in-flight values that requests are waiting on")
+                .tag(API, apiName)
+                .register(registry));
+
+        this.aggregationRequests = Timer.builder("aggregator.aggregation.requests")
+            .description("End-to-end latency of /aggregation requests")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    /**
+     * Records a batch that is sent to the External API.
+     *
+     * @param queuedMillis time between the first value of the batch being queued and the flush.
+     */
+    public void recordFlush(String apiName, int batchSize, int maxBatchSize, long queuedMillis) {
+        batchFillRatio.computeIfAbsent(apiName, key -> DistributionSummary.builder("aggregator.batch.fill.ratio")
+                .description("Batch size divided by the max batch size of the API")
+                .tag(API, key)
+                .register(registry))
+            .record((double) batchSize / maxBatchSize);
+        batchLinger.computeIfAbsent(apiName, key -> Timer.builder("aggregator.batch.linger")
+                .description("Time from the first enqueue of a batch until it is flushed")
+                .tag(API, key)
+                .publishPercentileHistogram()
+                .register(registry))
+            .record(queuedMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Publishes the batch size and linger an API is currently flushed with, when they are adapted at runtime.
+     */
+    public void recordBatchLimits(String apiName, int batchSize, long lingerMillis) {
+        batchSizeLimits.computeIfAbsent(apiName, key -> limitGauge("aggregator.batch.size.limit",
+                "Batch size the API is currently flushed at", null, key))
+            .set(batchSize);
+        batchLingerLimits.computeIfAbsent(apiName, key -> limitGauge("aggregator.batch.linger.limit",
+                "Linger partial batches of the API are currently flushed after", "milliseconds", key))
+            .set(lingerMillis);
+    }
+
+    /**
+     * Records how many requests a batch response was fanned out to.
+     */
+    public void recordWaiters(String apiName, int waiters) {
+        batchWaiters.computeIfAbsent(apiName, key -> DistributionSummary.builder("aggregator.batch.waiters")
+                .description("Requests served by one batch")
+                .tag(API, key)
+                .register(registry))
+            .record(waiters);
+    }
+
+    /**
+     * Times every subscription to the External API call, errors included.
+     */
+    public <T> Mono<T> timeExternalCall(String apiName, Mono<T> call) {
+        var timer = externalCalls.computeIfAbsent(apiName, key -> Timer.builder("aggregator.external.requests")
+            .description("Latency of External API calls")
+            .tag(API, key)
+            .publishPercentileHistogram()
+            .maximumExpectedValue(Duration.ofSeconds(10))
+            .register(registry));
+        return time(timer, call);
+    }
+
+    /**
+     * Records a request whose values of an API were all queued or in flight already, so it needs no call of its own.
+     */
+    public void recordSavedCall(String apiName) {
+        savedCalls.computeIfAbsent(apiName, key -> Counter.builder("aggregator.external.saved.calls")
+                .description("Requests served entirely by values already queued or in flight")
+                .tag(API, key)
+                .register(registry))
+            .increment();
+    }
+
+    /**
+     * Records values a request joined because another request had already queued them or they were in flight.
+     */
+    public void recordCoalescedValues(String apiName, int values) {
+        coalescedValues.computeIfAbsent(apiName, key -> Counter.builder("aggregator.external.coalesced.values")
+                .description("Values joined to the pending batch of another request")
+                .tag(API, key)
+                .register(registry))
+            .increment(values);
+    }
+
+    /**
+     * Records values left out of their batch because every request waiting on them had expired.
+     */
+    public void recordExpiredValues(String apiName, int values) {
+        expiredValues.computeIfAbsent(apiName, key -> Counter.builder("aggregator.values.expired")
+                .description("Values dropped from their batch because every request waiting on them had expired")
+                .tag(API, key)
+                .register(registry))
+            .increment(values);
+    }
+
+    /**
+     * Records unanswered values dropped from the queue journal, so they are not sent again on startup.
+     */
+    public void recordJournalDropped(String apiName, int values) {
+        journalDropped.computeIfAbsent(apiName, key -> Counter.builder("aggregator.journal.dropped")
+                .description("Unanswered values dropped from the queue journal instead of being sent again on startup")
+                .tag(API, key)
+                .register(registry))
+            .increment(values);
+    }
+
+    /**
+     * Records an External API call answered empty because the circuit breaker of the API is open.
+     */
+    public void recordShortCircuited(String apiName) {
+        shortCircuitedCalls.computeIfAbsent(apiName, key -> Counter.builder("aggregator.external.short.circuited")
+                .description("External API calls not sent because the circuit breaker was open")
+                .tag(API, key)
+                .register(registry))
+            .increment();
+    }
+
+    /**
+     * Records a batch sent before it was due because a high priority request is waiting on it.
+     */
+    public void recordPriorityFlush(String apiName) {
+        priorityFlushes.computeIfAbsent(apiName, key -> Counter.builder("aggregator.flush.priority")
+                .description("Batches sent early for a high priority request")
+                .tag(API, key)
+                .register(registry))
+            .increment();
+    }
+
+    /**
+     * Records the duplicate of a slow External API call.
+     */
+    public void recordHedge(String apiName) {
+        hedgedCalls.computeIfAbsent(apiName, key -> Counter.builder("aggregator.external.hedged.calls")
+                .description("Duplicate External API calls sent because the first one was slow")
+                .tag(API, key)
+                .register(registry))
+            .increment();
+    }
+
+    /**
+     * Records values forwarded to the cluster peer that owns them.
+     */
+    public void recordForwardedValues(String apiName, int values) {
+        forwardedValues.computeIfAbsent(apiName, key -> Counter.builder("aggregator.cluster.forwarded.values")
+                .description("Values forwarded to the peer owning them")
+                .tag(API, key)
+                .register(registry))
+            .increment(values);
+    }
+
+    /**
+     * Publishes the adaptive concurrency limit of /aggregation and the requests it currently admits.
+     */
+    public void registerConcurrencyLimit(Supplier<Number> limit, Supplier<Number> inFlight) {
+        Gauge.builder("aggregator.concurrency.limit", limit)
+            .description("Adaptive limit of concurrent /aggregation requests")
+            .register(registry);
+        Gauge.builder("aggregator.concurrency.in.flight", inFlight)
+            .description("/aggregation requests currently admitted")
+            .register(registry);
+    }
+
+    /**
+     * Records a /aggregation request, or a batch of values forwarded by another instance, rejected with 503.
+     *
+     * @param reason limit, bulkhead when one of its APIs had too many requests in flight, or bulk for a bulk lookup
+     *               over its own limit.
+     */
+    public void recordRejected(String reason) {
+        rejectedRequests.computeIfAbsent(reason, key -> Counter.builder("aggregator.requests.rejected")
+                .description("/aggregation requests rejected by admission control")
+                .tag("reason", key)
+                .register(registry))
+            .increment();
+    }
+
+    public <T> Mono<T> timeAggregation(Mono<T> request) {
+        return time(aggregationRequests, request);
+    }
+
+    private AtomicLong limitGauge(String name, String description, String baseUnit, String apiName) {
+        var limit = new AtomicLong();
+        Gauge.builder(name, limit, AtomicLong::get)
+            .description(description)
+            .baseUnit(baseUnit)
+            .tag(API, apiName)
+            .register(registry);
+        return limit;
+    }
+
+    private static <T> Mono<T> time(Timer timer, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+}
@@ -1,33 +1,233 @@
 package com.kougianos.aggregator.queue;
 
-import lombok.Getter;
-import org.springframework.lang.NonNull;
+import com.kougianos.aggregator.dto.Deadline;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.time.Instant;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-@Getter
-public class CustomQueue extends LinkedBlockingQueue<String> {
+/**
+ * Lock-free batch buffer of one API. A concurrent set gives O(1) membership checks, a lock-free linked queue keeps
+ * the insertion order of the batch, and {@link #addIfAbsent} reports in one step whether the value started a new
+ * batch or filled the current one.
+ * <p>
+ * Values that are added while a batch is drained end up either in that batch or in the next one, and are reported as
+ * DUPLICATE if they are part of the batch being drained.
+ * <p>
+ * A queue can optionally be backed by a {@link QueueJournal}, which records every value until its batch is
+ * {@link #acknowledge acknowledged}, and a {@link SpillBuffer} that takes the values beyond spillThreshold off the
+ * heap. Spilled values are not members, callers that spill rely on the pending key registry to queue a value once.
+ * At most maxUnanswered drained values are kept in the journal until they are answered, see {@link #retainFailed}.
+ */
+public class CustomQueue implements Closeable {
 
-    private Instant oldestElementInsertTimestamp;
+    public enum AddResult {
+        DUPLICATE, ADDED, FIRST, FULL
+    }
+
+    private final Set<String> members = ConcurrentHashMap.newKeySet();
+    private final Queue<String> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong batchId = new AtomicLong();
+    private volatile long oldestElementInsertMillis = System.currentTimeMillis();
+    private final AtomicLong earliestDeadlineMillis = new AtomicLong(Deadline.NONE);
+    private final QueueJournal journal;
+    private final SpillBuffer spill;
+    private final int spillThreshold;
+    private final int maxUnanswered;
+    private final Set<String> unacknowledged = ConcurrentHashMap.newKeySet();
 
     public CustomQueue() {
-        this.oldestElementInsertTimestamp = Instant.now();
+        this(null, null, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public CustomQueue(QueueJournal journal, SpillBuffer spill, int spillThreshold, int maxUnanswered) {
+        this.journal = journal;
+        this.spill = spill;
+        this.spillThreshold = spillThreshold;
+        this.maxUnanswered = maxUnanswered;
+        if (journal != null) {
+            journal.setPendingValues(this::pendingValues);
+        }
+    }
+
+    /**
+     * Appends the value unless it is already part of the current batch.
+     *
+     * @return FULL if the batch holds at least batchSize values after the add, FIRST if the value started a new
+     * batch, ADDED otherwise and DUPLICATE if the value was already queued.
+     */
+    public AddResult addIfAbsent(String value, int batchSize) {
+        // once values spill, later ones follow them until the spill is empty, to keep the queue in order
+        boolean spilled = spill != null && (size.get() >= spillThreshold || spill.size() > 0) && spill.offer(value);
+        if (!spilled && !members.add(value)) {
+            return AddResult.DUPLICATE;
+        }
+        if (journal != null) {
+            journal.enqueued(value);
+        }
+        if (!spilled) {
+            buffer.offer(value);
+        }
+        int newSize = size.incrementAndGet();
+        if (newSize == 1) {
+            oldestElementInsertMillis = System.currentTimeMillis();
+        }
+        if (newSize >= batchSize) {
+            return AddResult.FULL;
+        }
+        return newSize == 1 ? AddResult.FIRST : AddResult.ADDED;
+    }
+
+    /**
+     * Removes every queued value and starts a new batch.
+     *
+     * @return the values of the batch in insertion order.
+     */
+    public List<String> drain() {
+        return drain(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes the oldest maxValues queued values and starts a new batch. Spilled values follow the ones on the heap,
+     * and are only read back as far as the batch needs them.
+     *
+     * @return the values of the batch in insertion order.
+     */
+    public List<String> drain(int maxValues) {
+        batchId.incrementAndGet();
+        oldestElementInsertMillis = System.currentTimeMillis();
+        earliestDeadlineMillis.set(Deadline.NONE);
+        List<String> batch = new ArrayList<>(Math.min(size(), maxValues));
+        String value;
+        while (batch.size() < maxValues && (value = buffer.poll()) != null) {
+            size.decrementAndGet();
+            batch.add(value);
+        }
+        if (spill != null && batch.size() < maxValues) {
+            for (var spilled : spill.poll(maxValues - batch.size())) {
+                size.decrementAndGet();
+                batch.add(spilled);
+            }
+        }
+        if (journal != null) {
+            unacknowledged.addAll(batch);
+        }
+        // values stay members until the whole batch is drained, so they cannot be appended to it a second time
+        batch.forEach(members::remove);
+        return batch;
+    }
+
+    /**
+     * Records the deadline of a request waiting on values of the current batch.
+     *
+     * @return true if it is the earliest deadline of the batch so far.
+     */
+    public boolean tightenDeadline(long deadlineMillis) {
+        return earliestDeadlineMillis.getAndAccumulate(deadlineMillis, Math::min) > deadlineMillis;
+    }
+
+    public long getEarliestDeadlineMillis() {
+        return earliestDeadlineMillis.get();
+    }
+
+    /**
+     * Marks the values of a drained batch as answered, so the journal no longer replays them after a restart.
+     * Values of a call that failed are not acknowledged, see {@link #retainFailed}.
+     */
+    public void acknowledge(Collection<String> batch) {
+        if (journal != null) {
+            journal.flushed(batch);
+            batch.forEach(unacknowledged::remove);
+        }
+    }
+
+    /**
+     * Keeps the values of a failed call in the journal, so they are sent again on startup. Once the journal holds
+     * more than maxUnanswered drained values, including the ones in flight, further failed values are acknowledged
+     * instead, so an outage of the External API cannot grow the journal without bound.
+     *
+     * @return the number of values dropped from the journal.
+     */
+    public int retainFailed(Collection<String> batch) {
+        if (journal == null) {
+            return 0;
+        }
+        List<String> dropped = new ArrayList<>();
+        for (var value : batch) {
+            if (unacknowledged.size() > maxUnanswered && unacknowledged.remove(value)) {
+                dropped.add(value);
+            }
+        }
+        if (!dropped.isEmpty()) {
+            journal.flushed(dropped);
+        }
+        return dropped.size();
+    }
+
+    /**
+     * @return the values the journal found unanswered on startup, empty without a journal.
+     */
+    public List<String> getRecovered() {
+        return journal == null ? List.of() : journal.getRecovered();
+    }
+
+    public boolean contains(String value) {
+        return members.contains(value);
+    }
+
+    public int size() {
+        return Math.max(size.get(), 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public long getBatchId() {
+        return batchId.get();
+    }
+
+    public long getOldestElementInsertMillis() {
+        return oldestElementInsertMillis;
+    }
+
+    public Instant getOldestElementInsertTimestamp() {
+        return Instant.ofEpochMilli(oldestElementInsertMillis);
     }
 
     @Override
-    public boolean add(@NonNull String e) {
-        boolean success = super.add(e);
-        if (success && size() == 1) {
-            oldestElementInsertTimestamp = Instant.now();
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    private Collection<String> pendingValues() {
+        Set<String> pending = new LinkedHashSet<>(unacknowledged);
+        pending.addAll(members);
+        if (spill != null) {
+            pending.addAll(spill.snapshot());
         }
-        return success;
+        return pending;
     }
 
     @Override
-    public void clear() {
-        oldestElementInsertTimestamp = Instant.now();
-        super.clear();
+    public String toString() {
+        return buffer.toString();
     }
 
 }
@@ -0,0 +1,95 @@
+package com.kougianos.aggregator.queue;
+
+import com.kougianos.aggregator.dto.GenericMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps every queued or in-flight value of an API to the requests waiting on it,
+ * so a value is sent to the External API once no matter how many requests ask for it.
+ */
+public class PendingKeyRegistry {
+
+    private final ConcurrentMap<String, List<PendingRequest>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the request as a waiter of the value.
+     *
+     * @return true if nobody was waiting on the value yet, meaning it has to be queued.
+     */
+    public boolean register(String value, PendingRequest request) {
+        var created = new boolean[1];
+        pending.compute(value, (key, waiters) -> {
+            if (waiters == null) {
+                created[0] = true;
+                waiters = new ArrayList<>(2);
+            }
+            waiters.add(request);
+            return waiters;
+        });
+        return created[0];
+    }
+
+    /**
+     * Pushes the slice of the value in the batch response to every request waiting on it.
+     *
+     * @return the requests the slice was delivered to.
+     */
+    public List<PendingRequest> resolve(String value, GenericMap response) {
+        var waiters = pending.remove(value);
+        if (waiters == null) {
+            return List.of();
+        }
+        var slice = response.get(value);
+        waiters.forEach(request -> request.deliver(value, slice, response));
+        return waiters;
+    }
+
+    /**
+     * Drops the value if every request waiting on it is past its deadline, they get no slice for it.
+     *
+     * @return the latest deadline of the requests waiting on the value, 0 if it was dropped or nobody was waiting.
+     */
+    public long expire(String value, long nowMillis) {
+        var latest = new long[1];
+        List<List<PendingRequest>> expired = new ArrayList<>(1);
+        pending.computeIfPresent(value, (key, waiters) -> {
+            waiters.forEach(request -> latest[0] = Math.max(latest[0], request.getDeadlineMillis()));
+            if (latest[0] > nowMillis) {
+                return waiters;
+            }
+            expired.add(waiters);
+            return null;
+        });
+        if (!expired.isEmpty()) {
+            expired.get(0).forEach(request -> request.deliver(value, null));
+            return 0;
+        }
+        return latest[0];
+    }
+
+    /**
+     * @return the number of requests waiting on the value, 0 if it is neither queued nor in flight.
+     */
+    public int getWaiterCount(String value) {
+        var count = new int[1];
+        pending.computeIfPresent(value, (key, waiters) -> {
+            count[0] = waiters.size();
+            return waiters;
+        });
+        return count[0];
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    @Override
+    public String toString() {
+        return pending.keySet().toString();
+    }
+
+}
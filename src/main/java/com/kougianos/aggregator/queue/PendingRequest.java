@@ -0,0 +1,87 @@
+package com.kougianos.aggregator.queue;
+
+import com.kougianos.aggregator.dto.Deadline;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.dto.RawJsonMap;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The part of one aggregation request that targets a single API.
+ * Collects the response slice of every requested value and completes once all of them have been delivered,
+ * no matter how many batches they were spread across.
+ * <p>
+ * A request whose slices all come from one {@link RawJsonMap} response and make up all of it is answered with that
+ * response itself, so its body can be written out as it was received.
+ */
+public class PendingRequest {
+
+    private final GenericMap slices;
+    private final AtomicInteger remaining;
+    private final Sinks.One<GenericMap> sink = Sinks.one();
+    private final long deadlineMillis;
+    // guarded by slices
+    private GenericMap source;
+    private boolean mixedSources;
+
+    public PendingRequest(int values) {
+        this(values, Deadline.NONE);
+    }
+
+    /**
+     * @param deadlineMillis when the request stops waiting, see {@link Deadline}.
+     */
+    public PendingRequest(int values, long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        this.slices = GenericMap.withExpectedSize(values);
+        this.remaining = new AtomicInteger(values);
+        if (values == 0) {
+            sink.tryEmitValue(slices);
+        }
+    }
+
+    /**
+     * Delivers the response for one of the requested values, {@code null} if the External API did not return it.
+     */
+    public void deliver(String value, Object slice) {
+        deliver(value, slice, null);
+    }
+
+    /**
+     * Same as {@link #deliver(String, Object)}, for a slice of the given batch response.
+     */
+    public void deliver(String value, Object slice, GenericMap response) {
+        synchronized (slices) {
+            if (slice != null) {
+                slices.put(value, slice);
+            }
+            if (response == null || source != null && source != response) {
+                mixedSources = true;
+            }
+            source = response;
+        }
+        if (remaining.decrementAndGet() == 0) {
+            sink.tryEmitValue(isPassthrough() ? source : slices);
+        }
+    }
+
+    /**
+     * Every slice is part of the source, so the slices are the whole source if there are as many of them.
+     */
+    private boolean isPassthrough() {
+        synchronized (slices) {
+            return !mixedSources && source instanceof RawJsonMap && slices.size() == source.size();
+        }
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public Mono<GenericMap> response() {
+        return sink.asMono();
+    }
+
+}
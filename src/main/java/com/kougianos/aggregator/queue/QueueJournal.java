@@ -0,0 +1,202 @@
+package com.kougianos.aggregator.queue;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of the values queued for one API and the values flushed from it, in a memory-mapped segment
+ * file, so values that were still queued when the process stopped can be replayed on startup. Records go to the page
+ * cache, they survive a restart or crash of the process but not of the machine.
+ * <p>
+ * When the segment is full the journal rolls over to a new one that starts with the values still pending, and the
+ * old one is deleted. Appending is sequential and never blocks on I/O; if a segment cannot be created the journal
+ * stops recording instead of failing requests.
+ */
+@Slf4j
+public class QueueJournal implements Closeable {
+
+    private static final byte END = 0;
+    private static final byte ENQUEUED = 1;
+    private static final byte FLUSHED = 2;
+    // type and unsigned short length
+    private static final int HEADER_BYTES = 3;
+    private static final int MAX_VALUE_BYTES = 0xFFFF;
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final String apiName;
+    private final int segmentBytes;
+    private final List<String> recovered;
+    private Supplier<Collection<String>> pendingValues = List::of;
+    private long segmentIndex;
+    private Path segmentPath;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private boolean failed;
+
+    /**
+     * Reads the unflushed values of the previous run, which {@link #getRecovered()} returns, and starts a new segment
+     * with them.
+     */
+    public QueueJournal(Path directory, String apiName, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.apiName = apiName;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+
+        var segments = segments();
+        Set<String> unflushed = new LinkedHashSet<>();
+        for (var path : segments) {
+            read(path, unflushed);
+        }
+        this.recovered = List.copyOf(unflushed);
+        this.segmentIndex = segments.isEmpty() ? 0 : index(segments.get(segments.size() - 1)) + 1;
+        openSegment(recovered);
+        for (var path : segments) {
+            Files.delete(path);
+        }
+        if (!recovered.isEmpty()) {
+            log.info("Recovered {} unflushed {} values from the journal", recovered.size(), apiName);
+        }
+    }
+
+    public List<String> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Source of the values a new segment starts with when the journal rolls over.
+     */
+    void setPendingValues(Supplier<Collection<String>> pendingValues) {
+        this.pendingValues = pendingValues;
+    }
+
+    synchronized void enqueued(String value) {
+        append(ENQUEUED, value);
+    }
+
+    synchronized void flushed(Collection<String> values) {
+        values.forEach(value -> append(FLUSHED, value));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            segment.force();
+            channel.close();
+        }
+    }
+
+    private void append(byte type, String value) {
+        if (failed) {
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_VALUE_BYTES) {
+            log.debug("Not journaling {} value of {} bytes", apiName, bytes.length);
+            return;
+        }
+        // one byte stays free for the END marker
+        if (segment.remaining() <= HEADER_BYTES + bytes.length && !roll()) {
+            return;
+        }
+        write(type, bytes);
+    }
+
+    /**
+     * The type is written last, so a record torn by a crash reads as the end of the journal.
+     */
+    private void write(byte type, byte[] bytes) {
+        var position = segment.position();
+        segment.putShort(position + 1, (short) bytes.length);
+        segment.put(position + HEADER_BYTES, bytes);
+        segment.put(position, type);
+        segment.position(position + HEADER_BYTES + bytes.length);
+    }
+
+    private boolean roll() {
+        var oldChannel = channel;
+        var oldPath = segmentPath;
+        try {
+            segmentIndex++;
+            openSegment(pendingValues.get());
+            oldChannel.close();
+            Files.deleteIfExists(oldPath);
+            return true;
+        } catch (IOException e) {
+            log.error("Could not roll the {} journal over, it stops recording", apiName, e);
+            failed = true;
+            return false;
+        }
+    }
+
+    private void openSegment(Collection<String> initialValues) throws IOException {
+        var initialBytes = initialValues.stream()
+            .mapToLong(value -> HEADER_BYTES + value.getBytes(StandardCharsets.UTF_8).length)
+            .sum();
+        var size = Math.max(segmentBytes, 2 * initialBytes + 1);
+        segmentPath = directory.resolve("%s-%020d%s".formatted(apiName, segmentIndex, SUFFIX));
+        channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        initialValues.forEach(value -> {
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length <= MAX_VALUE_BYTES) {
+                write(ENQUEUED, bytes);
+            }
+        });
+    }
+
+    private static void read(Path path, Set<String> unflushed) throws IOException {
+        try (var readChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+            while (buffer.remaining() > HEADER_BYTES) {
+                var type = buffer.get();
+                var length = buffer.getShort() & MAX_VALUE_BYTES;
+                if (type == END || buffer.remaining() < length) {
+                    return;
+                }
+                var bytes = new byte[length];
+                buffer.get(bytes);
+                var value = new String(bytes, StandardCharsets.UTF_8);
+                if (type == ENQUEUED) {
+                    unflushed.add(value);
+                } else {
+                    unflushed.remove(value);
+                }
+            }
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> {
+                    var name = path.getFileName().toString();
+                    return name.startsWith(apiName + '-') && name.endsWith(SUFFIX);
+                })
+                .sorted()
+                .toList();
+        }
+    }
+
+    private long index(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(apiName.length() + 1, name.length() - SUFFIX.length()));
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.kougianos.aggregator.queue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory-mapped FIFO file queued values overflow to once a queue holds its spill threshold, so a burst grows the page
+ * cache instead of the heap. Values are read back a batch at a time, and the unread ones are moved to the start of the
+ * file when it runs out of room. What it held in a previous run is in the journal, so the file is truncated on open.
+ */
+public final class SpillBuffer implements Closeable {
+
+    private static final int MAX_VALUE_BYTES = 0xFFFF;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int size;
+
+    public SpillBuffer(Path path, int capacityBytes) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+    }
+
+    /**
+     * @return false if the value does not fit, it then has to stay on the heap.
+     */
+    synchronized boolean offer(String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_VALUE_BYTES) {
+            return false;
+        }
+        if (buffer.remaining() < Short.BYTES + bytes.length && readPosition > 0) {
+            compact();
+        }
+        if (buffer.remaining() < Short.BYTES + bytes.length) {
+            return false;
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes and returns the oldest values, at most max of them.
+     */
+    synchronized List<String> poll(int max) {
+        List<String> values = new ArrayList<>(Math.min(max, size));
+        while (values.size() < max && readPosition < buffer.position()) {
+            var bytes = new byte[buffer.getShort(readPosition) & MAX_VALUE_BYTES];
+            buffer.get(readPosition + Short.BYTES, bytes);
+            readPosition += Short.BYTES + bytes.length;
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        size -= values.size();
+        if (size == 0) {
+            buffer.clear();
+            readPosition = 0;
+        }
+        return values;
+    }
+
+    synchronized List<String> snapshot() {
+        List<String> values = new ArrayList<>(size);
+        var reader = buffer.duplicate().limit(buffer.position()).position(readPosition);
+        while (reader.hasRemaining()) {
+            var bytes = new byte[reader.getShort() & MAX_VALUE_BYTES];
+            reader.get(bytes);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void compact() {
+        var unread = buffer.position() - readPosition;
+        buffer.put(0, buffer, readPosition, unread);
+        buffer.position(unread);
+        readPosition = 0;
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.kougianos.aggregator.router;
+
+import com.kougianos.aggregator.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Access log of the aggregation endpoints, on the "access" logger. Every sampleEvery-th request and every request
+ * slower than slowMillis is logged in one line, see {@link AppProperties.AccessLog}. Bodies are only rendered for the
+ * requests that are logged, and cut at maxBodyLength characters.
+ */
+@Component
+public class AccessLog {
+
+    private static final Logger log = LoggerFactory.getLogger("access");
+
+    private final AppProperties.AccessLog config;
+    private final AtomicLong requestIds = new AtomicLong();
+
+    public AccessLog(AppProperties appProperties) {
+        this.config = appProperties.getAccessLog();
+    }
+
+    public long nextRequestId() {
+        return requestIds.incrementAndGet();
+    }
+
+    /**
+     * @param body the response, or a short description of it for streamed responses.
+     */
+    public void log(long requestId, ServerRequest request, long startNanos, Object body) {
+        var millis = (System.nanoTime() - startNanos) / 1_000_000;
+        var sampled = config.getSampleEvery() > 0 && requestId % config.getSampleEvery() == 0;
+        if ((sampled || millis >= config.getSlowMillis()) && log.isInfoEnabled()) {
+            var uri = request.uri();
+            log.info("id={} method={} path={} query={} millis={} body={}", requestId, request.method(),
+                uri.getRawPath(), uri.getRawQuery(), millis, new Abbreviated(body, config.getMaxBodyLength()));
+        }
+    }
+
+    /**
+     * Renders nested maps only up to about maxLength characters, instead of the whole response.
+     */
+    record Abbreviated(Object value, int maxLength) {
+
+        @Override
+        public String toString() {
+            var builder = new StringBuilder();
+            append(builder, value);
+            return builder.length() > maxLength ? builder.substring(0, maxLength) + "..." : builder.toString();
+        }
+
+        private void append(StringBuilder builder, Object value) {
+            if (!(value instanceof Map<?, ?> map)) {
+                builder.append(value);
+                return;
+            }
+            builder.append('{');
+            var first = true;
+            for (var entry : map.entrySet()) {
+                if (builder.length() > maxLength) {
+                    return;
+                }
+                if (!first) {
+                    builder.append(", ");
+                }
+                first = false;
+                builder.append(entry.getKey()).append('=');
+                append(builder, entry.getValue());
+            }
+            builder.append('}');
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.kougianos.aggregator.router;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.dto.JsonSlice;
+import com.kougianos.aggregator.dto.RawJsonMap;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes the aggregated response straight into a buffer of the server, copying {@link JsonSlice} values byte for
+ * byte from the External API bodies. Only values that were decoded go through the ObjectMapper.
+ */
+@Component
+@RequiredArgsConstructor
+public class AggregatedResponseWriter {
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper;
+
+    public DataBuffer write(Map<String, GenericMap> response, DataBufferFactory bufferFactory) {
+        var buffer = bufferFactory.allocateBuffer(estimateSize(response));
+        try {
+            buffer.write((byte) '{');
+            var first = true;
+            for (var section : response.entrySet()) {
+                if (!first) {
+                    buffer.write((byte) ',');
+                }
+                first = false;
+                writeKey(buffer, section.getKey());
+                if (section.getValue() == null) {
+                    buffer.write(NULL);
+                } else if (section.getValue() instanceof RawJsonMap raw) {
+                    // the section is the whole External API response
+                    buffer.write(raw.getBody());
+                } else {
+                    writeObject(buffer, section.getValue());
+                }
+            }
+            buffer.write((byte) '}');
+            return buffer;
+        } catch (IOException e) {
+            DataBufferUtils.release(buffer);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeObject(DataBuffer buffer, GenericMap map) throws IOException {
+        buffer.write((byte) '{');
+        var first = true;
+        for (var entry : map.entrySet()) {
+            if (!first) {
+                buffer.write((byte) ',');
+            }
+            first = false;
+            writeKey(buffer, entry.getKey());
+            writeValue(buffer, entry.getValue());
+        }
+        buffer.write((byte) '}');
+    }
+
+    private void writeValue(DataBuffer buffer, Object value) throws IOException {
+        if (value instanceof JsonSlice slice) {
+            buffer.write(slice.getSource(), slice.getOffset(), slice.getLength());
+        } else {
+            buffer.write(objectMapper.writeValueAsBytes(value));
+        }
+    }
+
+    private static void writeKey(DataBuffer buffer, String key) {
+        buffer.write((byte) '"');
+        buffer.write(JsonStringEncoder.getInstance().quoteAsUTF8(key));
+        buffer.write((byte) '"');
+        buffer.write((byte) ':');
+    }
+
+    private static int estimateSize(Map<String, GenericMap> response) {
+        int size = 2;
+        for (var section : response.values()) {
+            if (section == null) {
+                size += 24;
+                continue;
+            }
+            if (section instanceof RawJsonMap raw) {
+                size += raw.getBody().length + 24;
+                continue;
+            }
+            for (var entry : section.entrySet()) {
+                size += entry.getKey().length() + 4;
+                size += entry.getValue() instanceof JsonSlice slice ? slice.getLength() + 1 : 32;
+            }
+            size += 24;
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.kougianos.aggregator.router;
+
+import com.kougianos.aggregator.cluster.ClusterDispatcher;
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.dto.Deadline;
+import com.kougianos.aggregator.dto.Priority;
+import com.kougianos.aggregator.service.BatchDispatcher;
+import com.kougianos.aggregator.util.ValueInterner;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+import static com.kougianos.aggregator.router.ServiceHandler.ACCEPTABLE_PARAMETERS;
+
+/**
+ * Answers the values other instances of the cluster forward to this one as their owner, see
+ * {@link ClusterDispatcher}. They are batched locally and never forwarded again. Only the other instances know the
+ * secret of the cluster, requests without it are rejected with 403.
+ */
+@Service
+@RequiredArgsConstructor
+public class ClusterHandler {
+
+    private static final ParameterizedTypeReference<List<String>> VALUES_TYPE = new ParameterizedTypeReference<>() {
+    };
+
+    private final BatchDispatcher batchDispatcher;
+    private final AppProperties appProperties;
+
+    /**
+     * Filter that only lets requests with the secret of the cluster through, compared in constant time.
+     */
+    public Mono<ServerResponse> authenticate(ServerRequest request, HandlerFunction<ServerResponse> next) {
+        var secret = request.headers().firstHeader(ClusterDispatcher.SECRET_HEADER);
+        var expected = appProperties.getCluster().getSecret();
+        if (secret == null || expected == null || !MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+            expected.getBytes(StandardCharsets.UTF_8))) {
+            return ServerResponse.status(HttpStatus.FORBIDDEN).build();
+        }
+        return next.handle(request);
+    }
+
+    public Mono<ServerResponse> submitForwarded(ServerRequest request) {
+        var apiName = request.pathVariable("apiName");
+        if (!ACCEPTABLE_PARAMETERS.contains(apiName)) {
+            return ServerResponse.notFound().build();
+        }
+        var priority = Priority.fromHeader(request.headers().firstHeader(Priority.HEADER));
+        // forwarded without a budget if the original request had none
+        var deadline = Deadline.fromHeader(request.headers().firstHeader(Deadline.HEADER), 0);
+        return request.bodyToMono(VALUES_TYPE)
+            .map(values -> values.stream().map(ValueInterner::intern).toList())
+            .flatMap(values -> batchDispatcher.submit(apiName, values, priority, deadline))
+            .flatMap(slices -> ServerResponse.ok().bodyValue(slices))
+            .switchIfEmpty(ServerResponse.badRequest().build());
+    }
+
+}
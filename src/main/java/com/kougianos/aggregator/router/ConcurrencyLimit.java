@@ -0,0 +1,56 @@
+package com.kougianos.aggregator.router;
+
+/**
+ * Gradient concurrency limit. The limit is scaled by the ratio between the long-term average latency and the latest
+ * one, so it shrinks as soon as requests start queueing behind a slower backend, and grows back by a small queue
+ * allowance while latency holds.
+ */
+final class ConcurrencyLimit {
+
+    // updates the long-term average latency is smoothed over
+    private static final int LONG_WINDOW = 600;
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private double longLatencyNanos = -1;
+    private volatile double limit;
+
+    ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+    }
+
+    int get() {
+        return (int) limit;
+    }
+
+    /**
+     * @param latencyNanos latency of a completed request.
+     * @param inFlight     requests in flight when it completed, itself included.
+     */
+    synchronized void update(long latencyNanos, int inFlight) {
+        if (longLatencyNanos < 0) {
+            longLatencyNanos = latencyNanos;
+        } else {
+            longLatencyNanos += (latencyNanos - longLatencyNanos) / LONG_WINDOW;
+        }
+        // once latency drops well below the long-term average, let the average catch up faster
+        if (longLatencyNanos > 2.0 * latencyNanos) {
+            longLatencyNanos *= 0.95;
+        }
+        // an underused limit says nothing about how far it can go
+        if (inFlight < limit / 2) {
+            return;
+        }
+
+        var gradient = Math.clamp(tolerance * longLatencyNanos / latencyNanos, MIN_GRADIENT, 1.0);
+        var newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.clamp(limit * (1 - SMOOTHING) + newLimit * SMOOTHING, minLimit, maxLimit);
+    }
+
+}
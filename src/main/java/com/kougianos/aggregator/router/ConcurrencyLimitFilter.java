@@ -0,0 +1,229 @@
+package com.kougianos.aggregator.router;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kougianos.aggregator.router.ServiceHandler.ACCEPTABLE_PARAMETERS;
+
+/**
+ * Admission control in front of /aggregation, see {@link AppProperties.Limiter}. Requests over the adaptive
+ * concurrency limit are rejected right away instead of piling up as waiters, and every API has its own bulkhead,
+ * so requests for a slow API cannot take all the slots of the others. Bulk lookups go through {@link #bulk()}
+ * instead, and values forwarded by the other instances of the cluster through {@link #forwarded()}.
+ */
+@Component
+@Slf4j
+public class ConcurrencyLimitFilter implements HandlerFilterFunction<ServerResponse, ServerResponse> {
+
+    private final AppProperties.Limiter limiter;
+    private final AggregatorMetrics metrics;
+    private final ConcurrencyLimit limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger bulkInFlight = new AtomicInteger();
+    private final Map<String, AtomicInteger> apiInFlight = HashMap.newHashMap(ACCEPTABLE_PARAMETERS.size());
+
+    public ConcurrencyLimitFilter(AppProperties appProperties, AggregatorMetrics metrics) {
+        this.limiter = appProperties.getLimiter();
+        this.metrics = metrics;
+        this.limit = new ConcurrencyLimit(limiter.getInitialLimit(), limiter.getMinLimit(), limiter.getMaxLimit(),
+            limiter.getTolerance());
+        ACCEPTABLE_PARAMETERS.forEach(apiName -> apiInFlight.put(apiName, new AtomicInteger()));
+        metrics.registerConcurrencyLimit(limit::get, inFlight::get);
+    }
+
+    @Override
+    public Mono<ServerResponse> filter(ServerRequest request, HandlerFunction<ServerResponse> next) {
+        if (!limiter.isEnabled()) {
+            return next.handle(request);
+        }
+        return Mono.defer(() -> {
+            if (inFlight.incrementAndGet() > limit.get()) {
+                inFlight.decrementAndGet();
+                return reject("limit");
+            }
+            var apis = acquireBulkheads(ACCEPTABLE_PARAMETERS.stream()
+                .filter(apiName -> request.queryParams().getFirst(apiName) != null)
+                .toList());
+            if (apis == null) {
+                inFlight.decrementAndGet();
+                return reject("bulkhead");
+            }
+
+            return admit(request, next, new Admission(apis, inFlight, true, System.nanoTime()));
+        });
+    }
+
+    /**
+     * Admission control of bulk lookups. A bulk request takes many batch round trips, so it has a fixed limit of
+     * its own, bulkLimit, and its latency is kept out of the adaptive limit of interactive requests.
+     */
+    public HandlerFilterFunction<ServerResponse, ServerResponse> bulk() {
+        return (request, next) -> {
+            if (!limiter.isEnabled()) {
+                return next.handle(request);
+            }
+            return Mono.defer(() -> {
+                if (bulkInFlight.incrementAndGet() > limiter.getBulkLimit()) {
+                    bulkInFlight.decrementAndGet();
+                    return reject("bulk");
+                }
+                return admit(request, next, new Admission(List.of(), bulkInFlight, false, System.nanoTime()));
+            });
+        };
+    }
+
+    /**
+     * Admission control of the values other instances of the cluster forward to this one. Their requests were
+     * admitted by the instance that received them, so they only take a slot of the bulkhead of their API, which
+     * keeps a slow API from taking the slots of the others on its owner as well.
+     */
+    public HandlerFilterFunction<ServerResponse, ServerResponse> forwarded() {
+        return (request, next) -> {
+            var apiName = request.pathVariable("apiName");
+            if (!limiter.isEnabled() || !ACCEPTABLE_PARAMETERS.contains(apiName)) {
+                return next.handle(request);
+            }
+            return Mono.defer(() -> {
+                var apis = acquireBulkheads(List.of(apiName));
+                if (apis == null) {
+                    return reject("bulkhead");
+                }
+                return admit(request, next, new Admission(apis, null, false, System.nanoTime()));
+            });
+        };
+    }
+
+    private Mono<ServerResponse> admit(ServerRequest request, HandlerFunction<ServerResponse> next,
+                                       Admission admission) {
+        return next.handle(request)
+            .<ServerResponse>map(response -> new AdmittedResponse(response, admission))
+            .doOnError(e -> admission.release(true))
+            .doOnCancel(() -> admission.release(false));
+    }
+
+    /**
+     * @return the APIs the request holds a bulkhead slot of, or null if one of them was full.
+     */
+    private List<String> acquireBulkheads(List<String> apiNames) {
+        List<String> acquired = new ArrayList<>(apiNames.size());
+        for (var apiName : apiNames) {
+            var counter = apiInFlight.get(apiName);
+            if (counter.incrementAndGet() > limiter.getBulkhead(apiName)) {
+                counter.decrementAndGet();
+                acquired.forEach(api -> apiInFlight.get(api).decrementAndGet());
+                log.debug("{} bulkhead is full", apiName);
+                return null;
+            }
+            acquired.add(apiName);
+        }
+        return acquired;
+    }
+
+    /**
+     * The slots an admitted request holds until its response is written, so streamed bodies keep theirs as well.
+     */
+    private final class Admission {
+
+        private final List<String> apis;
+        private final AtomicInteger counter;
+        private final boolean sampled;
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * @param counter the requests in flight the request counts against, null for forwarded values.
+         * @param sampled whether its latency feeds the adaptive limit.
+         */
+        private Admission(List<String> apis, AtomicInteger counter, boolean sampled, long startNanos) {
+            this.apis = apis;
+            this.counter = counter;
+            this.sampled = sampled;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @param completed false if the client went away, a cancelled request did not wait for its response.
+         */
+        private void release(boolean completed) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            apis.forEach(apiName -> apiInFlight.get(apiName).decrementAndGet());
+            if (counter == null) {
+                return;
+            }
+            var current = counter.getAndDecrement();
+            if (completed && sampled) {
+                limit.update(System.nanoTime() - startNanos, current);
+            }
+        }
+    }
+
+    private static final class AdmittedResponse implements ServerResponse {
+
+        private final ServerResponse response;
+        private final Admission admission;
+
+        private AdmittedResponse(ServerResponse response, Admission admission) {
+            this.response = response;
+            this.admission = admission;
+        }
+
+        @Override
+        public HttpStatusCode statusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        @Deprecated
+        public int rawStatusCode() {
+            return response.statusCode().value();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return response.headers();
+        }
+
+        @Override
+        public MultiValueMap<String, ResponseCookie> cookies() {
+            return response.cookies();
+        }
+
+        @Override
+        public Mono<Void> writeTo(ServerWebExchange exchange, Context context) {
+            return response.writeTo(exchange, context)
+                .doOnSuccess(done -> admission.release(true))
+                .doOnError(e -> admission.release(true))
+                .doOnCancel(() -> admission.release(false));
+        }
+    }
+
+    private Mono<ServerResponse> reject(String reason) {
+        metrics.recordRejected(reason);
+        return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(limiter.getRetryAfterSeconds()))
+            .build();
+    }
+
+}
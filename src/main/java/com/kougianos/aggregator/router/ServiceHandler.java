@@ -1,9 +1,17 @@
 package com.kougianos.aggregator.router;
 
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.dto.Deadline;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.dto.Priority;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
 import com.kougianos.aggregator.service.AggregationService;
+import com.kougianos.aggregator.util.ServiceUtils;
+import com.kougianos.aggregator.util.ValueInterner;
 import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.RandomStringUtils;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
@@ -12,40 +20,145 @@ import reactor.core.publisher.Mono;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.stream.Collectors;
 
 import static com.kougianos.aggregator.dto.Constants.*;
 
 @Service
-@Slf4j
 @RequiredArgsConstructor
 public class ServiceHandler {
 
     // can be moved to app properties
-    private static final List<String> ACCEPTABLE_PARAMETERS = List.of(PRICING, TRACK, SHIPMENTS);
+    static final List<String> ACCEPTABLE_PARAMETERS = List.of(PRICING, TRACK, SHIPMENTS);
+    private static final ParameterizedTypeReference<Map<String, List<String>>> BATCH_REQUEST_TYPE =
+        new ParameterizedTypeReference<>() {
+        };
+    private static final ParameterizedTypeReference<Map<String, GenericMap>> SECTION_TYPE =
+        new ParameterizedTypeReference<>() {
+        };
+    private static final ParameterizedTypeReference<ServerSentEvent<Map<String, GenericMap>>> SECTION_EVENT_TYPE =
+        new ParameterizedTypeReference<>() {
+        };
     private final AggregationService aggregationService;
+    private final AggregatorMetrics metrics;
+    private final AppProperties appProperties;
+    private final AggregatedResponseWriter responseWriter;
+    private final AccessLog accessLog;
 
     public Mono<ServerResponse> getAggregatedResponse(ServerRequest request) {
-        var requestId = RandomStringUtils.randomAlphabetic(5);
-        long startTime = System.currentTimeMillis();
-        log.info("REQUEST {}: {}", requestId, request.queryParams().toSingleValueMap());
-        Map<String, String> parameters = cleanQueryParameters(request);
+        var requestId = accessLog.nextRequestId();
+        var startNanos = System.nanoTime();
+        Map<String, List<String>> parameters = cleanQueryParameters(request);
 
-        var serverResponse = aggregationService.getAggregatedResponse(parameters);
+        var serverResponse = aggregationService.getAggregatedResponse(parameters, priority(request),
+            deadline(request));
 
         return serverResponse.flatMap(resp -> {
-            long endTime = System.currentTimeMillis();
-            log.info("RESPONSE {} ({}ms): {}\n", requestId, endTime - startTime, resp);
+            accessLog.log(requestId, request, startNanos, resp);
+            if (appProperties.getExternalApi().isRawJson()) {
+                return ServerResponse.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body((outputMessage, context) -> outputMessage.writeWith(
+                        Mono.fromSupplier(() -> responseWriter.write(resp, outputMessage.bufferFactory()))));
+            }
             return ServerResponse.ok().bodyValue(resp);
-        });
+        }).transform(metrics::timeAggregation);
 
     }
 
-    private Map<String, String> cleanQueryParameters(ServerRequest request) {
-        var map = new HashMap<>(request.queryParams());
-        map.keySet().retainAll(ACCEPTABLE_PARAMETERS);
-        return map.entrySet().stream().collect(Collectors.toMap(Entry::getKey, e -> e.getValue().getFirst()));
+    /**
+     * Streaming variant of /aggregation for clients that explicitly accept NDJSON or server-sent events. Every API
+     * section is written as soon as its batch resolves, instead of waiting for the slowest API.
+     */
+    public Mono<ServerResponse> streamAggregatedResponse(ServerRequest request) {
+        var requestId = accessLog.nextRequestId();
+        var startNanos = System.nanoTime();
+
+        var sections = aggregationService
+            .streamAggregatedResponse(cleanQueryParameters(request), priority(request), deadline(request))
+            .doOnComplete(() -> accessLog.log(requestId, request, startNanos, "streamed"));
+
+        if (acceptsExplicitly(request, MediaType.TEXT_EVENT_STREAM)) {
+            var events = sections.map(section -> ServerSentEvent.builder(section)
+                .event(section.keySet().iterator().next())
+                .build());
+            return ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(events, SECTION_EVENT_TYPE);
+        }
+        return ServerResponse.ok()
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .body(sections, SECTION_TYPE);
+    }
+
+    private static Priority priority(ServerRequest request) {
+        return Priority.fromHeader(request.headers().firstHeader(Priority.HEADER));
+    }
+
+    private long deadline(ServerRequest request) {
+        return Deadline.fromHeader(request.headers().firstHeader(Deadline.HEADER),
+            appProperties.getDeadline().getDefaultMillis());
+    }
+
+    /**
+     * Whether the request lists the media type itself in its Accept header, wildcards do not count.
+     */
+    static boolean acceptsExplicitly(ServerRequest request, MediaType mediaType) {
+        return request.headers().accept().stream()
+            .anyMatch(accepted -> !accepted.isWildcardType() && !accepted.isWildcardSubtype()
+                && accepted.isCompatibleWith(mediaType));
+    }
+
+    /**
+     * Bulk lookups from a JSON body of value lists per API, e.g. {"shipments": ["1", "2", ...]}, answered as
+     * newline delimited JSON with one API section per batch.
+     */
+    public Mono<ServerResponse> getBatchAggregatedResponse(ServerRequest request) {
+        var requestId = accessLog.nextRequestId();
+        var startNanos = System.nanoTime();
+        return request.bodyToMono(BATCH_REQUEST_TYPE)
+            .map(ServiceHandler::cleanBatchParameters)
+            .flatMap(parameters -> {
+                var values = parameters.values().stream().mapToInt(List::size).sum();
+                var sections = aggregationService.streamAggregatedResponses(parameters)
+                    .doOnComplete(() -> accessLog.log(requestId, request, startNanos, values + " values streamed"));
+                return ServerResponse.ok()
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .body(sections, SECTION_TYPE);
+            })
+            .switchIfEmpty(ServerResponse.badRequest().build());
+    }
+
+    /**
+     * Keeps the acceptable parameters and parses their comma separated values once, for the whole request.
+     */
+    Map<String, List<String>> cleanQueryParameters(ServerRequest request) {
+        var queryParams = request.queryParams();
+        Map<String, List<String>> map = HashMap.newHashMap(ACCEPTABLE_PARAMETERS.size());
+        for (var apiName : ACCEPTABLE_PARAMETERS) {
+            var params = queryParams.getFirst(apiName);
+            if (params != null) {
+                map.put(apiName, ServiceUtils.splitDistinct(params));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Keeps the acceptable APIs of a batch request, without empty or duplicate values.
+     */
+    static Map<String, List<String>> cleanBatchParameters(Map<String, List<String>> body) {
+        Map<String, List<String>> map = HashMap.newHashMap(ACCEPTABLE_PARAMETERS.size());
+        for (var apiName : ACCEPTABLE_PARAMETERS) {
+            var values = body.get(apiName);
+            if (values != null) {
+                map.put(apiName, values.stream()
+                    .filter(value -> value != null && !value.isEmpty())
+                    .map(ValueInterner::intern)
+                    .distinct()
+                    .toList());
+            }
+        }
+        return map;
     }
 
 }
@@ -1,11 +1,15 @@
 package com.kougianos.aggregator.router;
 
+import com.kougianos.aggregator.cluster.ClusterDispatcher;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
 @Configuration
@@ -14,12 +18,40 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 public class ServiceRouter {
 
     private final ServiceHandler serviceHandler;
+    private final ConcurrencyLimitFilter concurrencyLimitFilter;
 
     @Bean
     public RouterFunction<ServerResponse> aggregatorRouter() {
+        var bulk = RouterFunctions.route()
+            .POST("/aggregation/batch", serviceHandler::getBatchAggregatedResponse)
+            .filter(concurrencyLimitFilter.bulk())
+            .build();
         return RouterFunctions.route()
+            .GET("/aggregation", ServiceRouter::acceptsStream, serviceHandler::streamAggregatedResponse)
             .GET("/aggregation", serviceHandler::getAggregatedResponse)
+            .filter(concurrencyLimitFilter)
+            .build()
+            .and(bulk);
+    }
+
+    /**
+     * Values forwarded by the other instances of the cluster. Requests without the secret of the cluster are
+     * rejected first, the others only take a slot of the bulkhead of their API, since their requests were admitted
+     * by the instance that received them.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.cluster.enabled", havingValue = "true")
+    public RouterFunction<ServerResponse> clusterRouter(ClusterHandler clusterHandler) {
+        return RouterFunctions.route()
+            .POST(ClusterDispatcher.FORWARD_PATH, clusterHandler::submitForwarded)
+            .filter(clusterHandler::authenticate)
+            .filter(concurrencyLimitFilter.forwarded())
             .build();
     }
 
+    private static boolean acceptsStream(ServerRequest request) {
+        return ServiceHandler.acceptsExplicitly(request, MediaType.APPLICATION_NDJSON)
+            || ServiceHandler.acceptsExplicitly(request, MediaType.TEXT_EVENT_STREAM);
+    }
+
 }
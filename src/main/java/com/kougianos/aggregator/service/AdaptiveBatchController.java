@@ -0,0 +1,109 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import com.kougianos.aggregator.util.LatencyWindow;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adapts the batch size and linger of every API to the latency of its External API, see
+ * {@link AppProperties.AdaptivePolicy}. APIs without an enabled adaptive policy use their flush policy as it is.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AdaptiveBatchController {
+
+    // an External API call within this factor of the moving average latency counts as flat
+    private static final double FLAT_LATENCY_FACTOR = 1.2;
+    private static final double AVERAGE_WEIGHT = 0.2;
+    // the linger grows by maxLingerMillis / LINGER_STEPS per batch
+    private static final int LINGER_STEPS = 10;
+
+    private final AppProperties appProperties;
+    private final AggregatorMetrics metrics;
+    private final Map<String, Limits> limits = new ConcurrentHashMap<>();
+
+    public int getBatchSize(String apiName) {
+        var apiLimits = limits(apiName);
+        return apiLimits == null ? appProperties.getFlushPolicy(apiName).getMaxBatchSize() : apiLimits.batchSize;
+    }
+
+    public long getLingerMillis(String apiName) {
+        var apiLimits = limits(apiName);
+        return apiLimits == null ? appProperties.getFlushPolicy(apiName).getMaxLingerMillis() : apiLimits.lingerMillis;
+    }
+
+    /**
+     * Adjusts the limits of the API to a completed batch.
+     *
+     * @param queuedMillis   time the first value of the batch waited in the queue.
+     * @param externalMillis latency of the External API call.
+     * @param failed         whether the call failed, which the client reports as an empty response.
+     */
+    public void record(String apiName, long queuedMillis, long externalMillis, boolean failed) {
+        var apiLimits = limits(apiName);
+        if (apiLimits == null) {
+            return;
+        }
+        synchronized (apiLimits) {
+            apiLimits.update(queuedMillis + externalMillis, externalMillis, failed);
+            metrics.recordBatchLimits(apiName, apiLimits.batchSize, apiLimits.lingerMillis);
+        }
+        log.debug("{} batch limits: size {}, linger {}ms", apiName, apiLimits.batchSize, apiLimits.lingerMillis);
+    }
+
+    private Limits limits(String apiName) {
+        var policy = appProperties.getFlushPolicy(apiName);
+        return policy.getAdaptive().isEnabled() ? limits.computeIfAbsent(apiName, key -> new Limits(policy)) : null;
+    }
+
+    private static final class Limits {
+
+        private final AppProperties.FlushPolicy policy;
+        // end-to-end latencies of the batches sent since the limits were last decreased
+        private final LatencyWindow window;
+        private double averageExternalMillis = -1;
+        private volatile int batchSize;
+        private volatile long lingerMillis;
+
+        private Limits(AppProperties.FlushPolicy policy) {
+            var adaptive = policy.getAdaptive();
+            this.policy = policy;
+            this.window = new LatencyWindow(adaptive.getWindowSize());
+            this.batchSize = Math.clamp(policy.getMaxBatchSize(), adaptive.getMinBatchSize(),
+                adaptive.getMaxBatchSize());
+            this.lingerMillis = policy.getMaxLingerMillis();
+        }
+
+        private void update(long endToEndMillis, long externalMillis, boolean failed) {
+            var adaptive = policy.getAdaptive();
+            var minLingerMillis = Math.min(adaptive.getMinLingerMillis(), policy.getMaxLingerMillis());
+            window.record(endToEndMillis);
+
+            if (failed || window.percentile(0.99) > adaptive.getTargetP99Millis()) {
+                batchSize = Math.max(adaptive.getMinBatchSize(), batchSize / 2);
+                lingerMillis = Math.max(minLingerMillis, lingerMillis / 2);
+                // the new limits are judged on their own batches only
+                window.clear();
+                return;
+            }
+
+            var flat = averageExternalMillis < 0 || externalMillis <= averageExternalMillis * FLAT_LATENCY_FACTOR;
+            averageExternalMillis = averageExternalMillis < 0
+                ? externalMillis
+                : averageExternalMillis + AVERAGE_WEIGHT * (externalMillis - averageExternalMillis);
+            if (flat) {
+                batchSize = Math.min(adaptive.getMaxBatchSize(), batchSize + 1);
+                lingerMillis = Math.min(policy.getMaxLingerMillis(),
+                    lingerMillis + Math.max(1, policy.getMaxLingerMillis() / LINGER_STEPS));
+            }
+        }
+    }
+
+}
@@ -1,138 +1,113 @@
 package com.kougianos.aggregator.service;
 
+import com.kougianos.aggregator.cluster.ClusterDispatcher;
+import com.kougianos.aggregator.dto.Deadline;
 import com.kougianos.aggregator.dto.GenericMap;
-import com.kougianos.aggregator.queue.CustomQueue;
+import com.kougianos.aggregator.dto.Priority;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static com.kougianos.aggregator.dto.Constants.QUEUE_SIZE;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class AggregationService {
 
-    private final ExternalApiClient client;
+    private final BatchDispatcher batchDispatcher;
+    private final ClusterDispatcher clusterDispatcher;
     private final QueueManager queueManager;
-    private final Map<String, Mono<Entry<String, GenericMap>>> apiCallMap = new ConcurrentHashMap<>();
-
-    public Mono<Map<String, GenericMap>> getAggregatedResponse(Map<String, String> parameters) {
-        var completedApis = new HashSet<>();
-
-        // populate queues, if any queue exceeds size 5 notify all threads waiting on that queue,
-        // and add API call to shared map.
-        parameters.forEach((apiName, params) -> {
-            var queue = queueManager.get(apiName);
-            var paramList = Arrays.stream(params.split(",")).distinct().toList();
-
-            paramList.forEach(param -> {
-
-                if (!queue.contains(param)) {
-                    synchronized (queue) {
-                        queue.add(param);
-                        log.info("Adding {} {}", param, queue);
-                    }
-                }
-
-            });
-
-            if (queue.size() >= QUEUE_SIZE) {
-                completedApis.add(apiName);
-
-                synchronized (queue) {
-                    queue.notifyAll();
-                }
-
-                callAPIAndAddToMap(queue, apiName);
-            }
+    private final Scheduler aggregationScheduler;
 
-        });
-
-        // iterate parameters, wait for queues with size < 5. Skip completed APIs.
-        parameters.forEach((apiName, params) -> {
-            if (completedApis.contains(apiName)) {
-                return;
-            }
-
-            var queue = queueManager.get(apiName);
-
-            synchronized (queue) {
-                while (queue.size() < QUEUE_SIZE) {
-                    log.info("Thread is waiting for queue {} ... {}", apiName, queue);
-                    try {
-                        queue.wait();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-                log.info("Queue {} size is >= 5 {}", apiName, queue);
-
-                callAPIAndAddToMap(queue, apiName);
-
-            }
-
-        });
-
-        // Edge case for when a Thread waits on 2 or more queues, and subsequent Threads don't fill all queues at once.
-        var localApiCallMap = new HashMap<>(apiCallMap);
-        parameters.forEach((apiName, params) -> {
-            if (!localApiCallMap.containsKey(apiName)) {
-                localApiCallMap.put(apiName, callAPI(new CustomQueue(), apiName, params));
-            }
-        });
+    public Mono<Map<String, GenericMap>> getAggregatedResponse(Map<String, List<String>> parameters) {
+        return getAggregatedResponse(parameters, Priority.NORMAL, Deadline.NONE);
+    }
 
-        // Call only the APIs that were requested by this thread
-        localApiCallMap.keySet().removeIf(key -> !parameters.containsKey(key));
-        Mono<List<Entry<String, GenericMap>>> zippedApiCalls = zipApiResponses(localApiCallMap.values().stream().toList());
+    /**
+     * Values are registered on subscription, on the aggregation scheduler. APIs that did not answer by the deadline
+     * are mapped to null.
+     *
+     * @param parameters the distinct values requested per API, as parsed by the handler.
+     */
+    public Mono<Map<String, GenericMap>> getAggregatedResponse(Map<String, List<String>> parameters,
+                                                               Priority priority, long deadline) {
+        return Mono.defer(() -> {
+            // register the values of every API and subscribe to their slices, nothing blocks here.
+            List<Mono<Entry<String, GenericMap>>> apiCalls = new ArrayList<>(parameters.size());
+            parameters.forEach((apiName, values) -> apiCalls.add(
+                withDeadline(clusterDispatcher.submit(apiName, values, priority, deadline), deadline)
+                    .map(response -> Map.entry(apiName, response))));
+
+            return Mono.zip(apiCalls, this::transformToAggregatedResponse);
+        }).subscribeOn(aggregationScheduler);
+    }
 
-        return zippedApiCalls.map(list -> transformToAggregatedResponse(list, parameters));
+    /**
+     * Streaming variant of {@link #getAggregatedResponse}, every API section is emitted as soon as its slices arrive.
+     * APIs without any slice are mapped to null.
+     */
+    public Flux<Map<String, GenericMap>> streamAggregatedResponse(Map<String, List<String>> parameters,
+                                                                  Priority priority, long deadline) {
+        return Flux.fromIterable(parameters.entrySet())
+            .flatMap(entry -> withDeadline(
+                clusterDispatcher.submit(entry.getKey(), entry.getValue(), priority, deadline), deadline)
+                .map(response -> section(entry.getKey(), response)))
+            .subscribeOn(aggregationScheduler);
     }
 
-    private void callAPIAndAddToMap(CustomQueue queue, String apiName) {
-        String p = String.join(",", queue.stream().toList());
-        var apiCallMono = callAPI(queue, apiName, p);
-        apiCallMap.putIfAbsent(apiName, apiCallMono);
+    /**
+     * Bulk variant for many values per API, every chunk of values is emitted as a single API section as soon as it
+     * resolves, in no particular order. Chunks without any slice are mapped to null.
+     * Chunks are always batched locally, they already fill whole batches.
+     */
+    public Flux<Map<String, GenericMap>> streamAggregatedResponses(Map<String, List<String>> parameters) {
+        return Flux.fromIterable(parameters.entrySet())
+            .flatMap(entry -> batchDispatcher.submitAll(entry.getKey(), entry.getValue())
+                .map(response -> section(entry.getKey(), response)))
+            .subscribeOn(aggregationScheduler);
     }
 
-    private Mono<Entry<String, GenericMap>> callAPI(CustomQueue queue, String apiName, String params) {
-        return client.get(apiName, params)
-            .doOnNext(response -> {
-                queue.clear();
-                apiCallMap.remove(apiName);
-            })
-            .map(response -> Map.entry(apiName, response));
+    /**
+     * Stops waiting at the deadline with an empty response. The values stay pending for other requests, and are left
+     * out of their batch if nobody else waits on them.
+     */
+    private static Mono<GenericMap> withDeadline(Mono<GenericMap> response, long deadline) {
+        if (deadline == Deadline.NONE) {
+            return response;
+        }
+        return response.timeout(Duration.ofMillis(Deadline.remainingMillis(deadline)), Mono.just(new GenericMap()));
     }
 
-    private Mono<List<Entry<String, GenericMap>>> zipApiResponses(List<Mono<Entry<String, GenericMap>>> monoList) {
-        return Mono.zip(monoList, objects -> Arrays.stream(objects)
-            .map(obj -> (Entry<String, GenericMap>) obj)
-            .toList());
+    private static Map<String, GenericMap> section(String apiName, GenericMap response) {
+        return Collections.singletonMap(apiName, response.isEmpty() ? null : response);
     }
 
-    private Map<String, GenericMap> transformToAggregatedResponse(List<Entry<String, GenericMap>> responseList,
-                                                                  Map<String, String> parameters) {
-        Map<String, GenericMap> aggregatedResponse = new HashMap<>();
-        parameters.keySet().forEach(apiName -> aggregatedResponse.put(apiName, new GenericMap()));
-        responseList.forEach(responseEntry -> {
-            var apiResponse = new GenericMap(responseEntry.getValue());
-            apiResponse.keySet().removeIf(key -> !Arrays.stream(parameters.get(responseEntry.getKey()).split(","))
-                .toList().contains(key));
-            aggregatedResponse.put(responseEntry.getKey(), apiResponse.isEmpty() ? null : apiResponse);
-        });
+    /**
+     * Every response only holds the slices of the values this request asked for, so they are used as they are.
+     * APIs without any slice are mapped to null.
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, GenericMap> transformToAggregatedResponse(Object[] responseEntries) {
+        Map<String, GenericMap> aggregatedResponse = HashMap.newHashMap(responseEntries.length);
+        for (var responseEntry : responseEntries) {
+            var entry = (Entry<String, GenericMap>) responseEntry;
+            aggregatedResponse.put(entry.getKey(), entry.getValue().isEmpty() ? null : entry.getValue());
+        }
 
         return aggregatedResponse;
     }
 
+    // queue depths are exported as the aggregator.queue.depth gauge, this is only for debugging
     @Scheduled(fixedRate = 4000)
     public void logQueues() {
-        log.info("QUEUES {}\n", queueManager.getApiQueues());
+        log.debug("QUEUES {}\n", queueManager.getApiQueues());
     }
 
 }
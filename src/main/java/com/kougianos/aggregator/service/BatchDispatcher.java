@@ -0,0 +1,318 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.dto.Deadline;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.dto.Priority;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import com.kougianos.aggregator.queue.CustomQueue;
+import com.kougianos.aggregator.queue.PendingRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking batching engine. Callers register as waiters of the values they ask for in the
+ * {@link com.kougianos.aggregator.queue.PendingKeyRegistry} of the API, and only values nobody is waiting on yet are
+ * queued. When a batch response arrives, the slice of every value is pushed to exactly the requests waiting on it,
+ * so a value that is already queued or in flight never causes another External API call.
+ * <p>
+ * Batches are flushed according to the {@link AppProperties.FlushPolicy} of their API, with the batch size and linger
+ * adapted at runtime by the {@link AdaptiveBatchController}. High priority requests send their batch early, along
+ * with whatever normal priority values are queued by then. Batches are also sent ahead of the tightest
+ * {@link Deadline} of their values, their call never outlives the requests waiting on it, and values nobody waits on
+ * any more are left out.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class BatchDispatcher {
+
+    private final ExternalApiClient client;
+    private final QueueManager queueManager;
+    private final AppProperties appProperties;
+    private final AggregatorMetrics metrics;
+    private final ResponseCache responseCache;
+    private final AdaptiveBatchController batchController;
+    private final Optional<QueueScheduler> queueScheduler;
+    private final Map<String, AtomicInteger> inFlightBatches = new ConcurrentHashMap<>();
+    private final Map<String, AtomicBoolean> deferredFlushes = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the values for the given API and returns the slices of the External API responses for them.
+     * Cached values are delivered right away and never queued.
+     * If the queue reached the batch size the batch is flushed right away, and the first value of a batch arms its
+     * linger timer.
+     */
+    public Mono<GenericMap> submit(String apiName, Collection<String> values) {
+        return submit(apiName, values, Priority.NORMAL, Deadline.NONE);
+    }
+
+    /**
+     * Same as {@link #submit(String, Collection)}, a HIGH priority request whose values are queued also sends their
+     * batch after the priorityLingerMillis of the API. The batch is sent flushReserveMillis before the deadline if
+     * its linger runs out later.
+     */
+    public Mono<GenericMap> submit(String apiName, Collection<String> values, Priority priority, long deadline) {
+        var queue = queueManager.get(apiName);
+        var registry = queueManager.getRegistry(apiName);
+        var batchSize = batchController.getBatchSize(apiName);
+        var request = new PendingRequest(values.size(), deadline);
+        boolean full = false;
+        boolean newBatch = false;
+        boolean queued = false;
+        int joined = 0;
+
+        for (var value : values) {
+            if (responseCache.deliverCached(apiName, value, request)) {
+                continue;
+            }
+            if (!registry.register(value, request)) {
+                // pending already, either queued or in flight
+                queued |= queue.contains(value);
+                joined++;
+                continue;
+            }
+            queued = true;
+            switch (queue.addIfAbsent(value, batchSize)) {
+                case FULL -> full = true;
+                case FIRST -> newBatch = true;
+                default -> {
+                    // already queued or part of a started batch
+                }
+            }
+        }
+        log.debug("Adding {} {}", values, queue);
+        if (joined > 0) {
+            metrics.recordCoalescedValues(apiName, joined);
+            if (joined == values.size()) {
+                metrics.recordSavedCall(apiName);
+            }
+        }
+
+        if (full) {
+            flush(apiName);
+            return request.response();
+        }
+        if (priority == Priority.HIGH && queued) {
+            flushPriority(apiName);
+        } else if (newBatch) {
+            // a drain racing with this add can only make the timer flush the next batch early, never lose values
+            var batchId = queue.getBatchId();
+            var lingerMillis = batchController.getLingerMillis(apiName);
+            queueScheduler.ifPresent(scheduler ->
+                scheduler.armLingerTimer(apiName, lingerMillis, () -> flush(apiName, batchId)));
+        }
+        if (queued && queue.tightenDeadline(deadline)) {
+            armDeadlineTimer(apiName, queue, deadline);
+        }
+
+        return request.response();
+    }
+
+    /**
+     * Submits many values of one API in chunks of its batch size, so every chunk goes out as its own batch, with at
+     * most maxInFlightBatches chunks waiting at a time. The queue is flushed after every chunk, so a chunk that was
+     * partly cached or already pending elsewhere never waits for values that are not coming.
+     *
+     * @return the slices of every chunk, as soon as it resolves.
+     */
+    public Flux<GenericMap> submitAll(String apiName, List<String> values) {
+        var batchSize = batchController.getBatchSize(apiName);
+        var chunks = (values.size() + batchSize - 1) / batchSize;
+        return Flux.range(0, chunks)
+            .map(chunk -> values.subList(chunk * batchSize, Math.min(values.size(), (chunk + 1) * batchSize)))
+            .flatMap(chunk -> {
+                var response = submit(apiName, chunk);
+                flush(apiName);
+                return response;
+            }, appProperties.getFlushPolicy(apiName).getMaxInFlightBatches());
+    }
+
+    /**
+     * Sends the values currently in the queue to the External API, at most one batch size per call, and fans the
+     * response out to their waiters. Does nothing if the queue is empty. If maxInFlightBatches calls are already
+     * running, the batch stays queued. It is sent as soon as one of them completes, even if it is not due by then.
+     */
+    public void flush(String apiName) {
+        var queue = queueManager.get(apiName);
+        var registry = queueManager.getRegistry(apiName);
+        var inFlight = inFlightBatches.computeIfAbsent(apiName, key -> new AtomicInteger());
+        var deferred = deferredFlushes.computeIfAbsent(apiName, key -> new AtomicBoolean());
+
+        // set before taking a slot, so a call releasing its slot meanwhile sees the request and flushes for it
+        deferred.set(true);
+        if (inFlight.incrementAndGet() > appProperties.getFlushPolicy(apiName).getMaxInFlightBatches()) {
+            inFlight.decrementAndGet();
+            log.debug("Deferring {} batch, too many batches in flight", apiName);
+            return;
+        }
+        deferred.set(false);
+
+        var oldestElementInsertMillis = queue.getOldestElementInsertMillis();
+        var batch = queue.drain(batchController.getBatchSize(apiName));
+        if (batch.isEmpty()) {
+            inFlight.decrementAndGet();
+            return;
+        }
+
+        var now = System.currentTimeMillis();
+        List<String> live = new ArrayList<>(batch.size());
+        List<String> expired = new ArrayList<>();
+        var deadline = 0L;
+        for (var value : batch) {
+            var latest = registry.expire(value, now);
+            if (latest > 0) {
+                live.add(value);
+                deadline = Math.max(deadline, latest);
+            } else {
+                expired.add(value);
+            }
+        }
+        if (!expired.isEmpty()) {
+            metrics.recordExpiredValues(apiName, expired.size());
+            // nobody waits on them any more, so there is nothing to replay either
+            queue.acknowledge(expired);
+        }
+        if (live.isEmpty()) {
+            inFlight.decrementAndGet();
+            flushRemainder(apiName, queue);
+            return;
+        }
+
+        log.debug("Flushing {} batch {}", apiName, live);
+        var queuedMillis = now - oldestElementInsertMillis;
+        metrics.recordFlush(apiName, live.size(), batchController.getBatchSize(apiName), queuedMillis);
+        var start = System.nanoTime();
+        var call = client.get(apiName, String.join(",", live))
+            .defaultIfEmpty(new GenericMap())
+            .onErrorReturn(new GenericMap())
+            .doOnNext(response -> {
+                batchController.record(apiName, queuedMillis, (System.nanoTime() - start) / 1_000_000,
+                    response.isEmpty());
+                // an empty response is how a failed call is answered, its values stay in the journal
+                if (!response.isEmpty()) {
+                    queue.acknowledge(live);
+                } else {
+                    metrics.recordJournalDropped(apiName, queue.retainFailed(live));
+                }
+                responseCache.store(apiName, live, response);
+                Set<PendingRequest> waiters = Collections.newSetFromMap(new IdentityHashMap<>());
+                live.forEach(value -> waiters.addAll(registry.resolve(value, response)));
+                metrics.recordWaiters(apiName, waiters.size());
+            })
+            .doFinally(signal -> {
+                if (signal == SignalType.CANCEL) {
+                    // every request waiting on the batch gave up, so nothing is left to answer or replay
+                    queue.acknowledge(live);
+                }
+                inFlight.decrementAndGet();
+                if (deferred.get() || isDue(apiName, queue)) {
+                    flush(apiName);
+                }
+            })
+            .subscribe();
+        if (deadline != Deadline.NONE) {
+            cancelAfterDeadline(apiName, live, call, deadline);
+        }
+        flushRemainder(apiName, queue);
+    }
+
+    /**
+     * Cancels the call once every request waiting on its values is past its deadline. Requests that joined the
+     * batch while it was in flight push the check back to their own deadline.
+     */
+    private void cancelAfterDeadline(String apiName, List<String> values, Disposable call, long deadline) {
+        Schedulers.parallel().schedule(() -> {
+            if (call.isDisposed()) {
+                return;
+            }
+            var registry = queueManager.getRegistry(apiName);
+            var now = System.currentTimeMillis();
+            var latest = 0L;
+            for (var value : values) {
+                latest = Math.max(latest, registry.expire(value, now));
+            }
+            if (latest == 0) {
+                log.debug("Cancelling {} batch {}, nobody waits on it any more", apiName, values);
+                call.dispose();
+            } else if (latest != Deadline.NONE) {
+                cancelAfterDeadline(apiName, values, call, latest);
+            }
+        }, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the values a flush left queued because they did not fit in its batch, in a call of their own or as soon
+     * as a call completes.
+     */
+    private void flushRemainder(String apiName, CustomQueue queue) {
+        if (!queue.isEmpty()) {
+            flush(apiName);
+        }
+    }
+
+    /**
+     * Sends the current batch after the priorityLingerMillis of the API, right away for 0 or without the queue
+     * scheduler.
+     */
+    private void flushPriority(String apiName) {
+        metrics.recordPriorityFlush(apiName);
+        var lingerMillis = appProperties.getFlushPolicy(apiName).getPriorityLingerMillis();
+        if (lingerMillis <= 0 || queueScheduler.isEmpty()) {
+            flush(apiName);
+            return;
+        }
+        var batchId = queueManager.get(apiName).getBatchId();
+        queueScheduler.get().armLingerTimer(apiName, lingerMillis, () -> flush(apiName, batchId));
+    }
+
+    /**
+     * Sends the batch flushReserveMillis before the deadline, unless its linger runs out before that anyway.
+     */
+    private void armDeadlineTimer(String apiName, CustomQueue queue, long deadline) {
+        if (queueScheduler.isEmpty()) {
+            return;
+        }
+        var flushAt = deadline - appProperties.getDeadline().getFlushReserveMillis();
+        if (flushAt >= queue.getOldestElementInsertMillis() + batchController.getLingerMillis(apiName)) {
+            return;
+        }
+        var batchId = queue.getBatchId();
+        queueScheduler.get().armLingerTimer(apiName, Math.max(0, flushAt - System.currentTimeMillis()),
+            () -> flush(apiName, batchId));
+    }
+
+    /**
+     * Linger timer callback, flushes the batch unless it has already been sent.
+     */
+    private void flush(String apiName, long batchId) {
+        if (queueManager.get(apiName).getBatchId() == batchId) {
+            flush(apiName);
+        }
+    }
+
+    private boolean isDue(String apiName, CustomQueue queue) {
+        if (queue.isEmpty()) {
+            return false;
+        }
+        var now = System.currentTimeMillis();
+        var age = now - queue.getOldestElementInsertMillis();
+        var reserve = appProperties.getDeadline().getFlushReserveMillis();
+        return queue.size() >= batchController.getBatchSize(apiName)
+            || queueScheduler.isPresent() && (age >= batchController.getLingerMillis(apiName)
+            || now >= queue.getEarliestDeadlineMillis() - reserve);
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.kougianos.aggregator.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Circuit breaker of one API, see {@link com.kougianos.aggregator.config.AppProperties.CircuitBreakerPolicy}.
+ * Closed, it lets every call through and counts consecutive failures. Open, it rejects calls until openMillis have
+ * passed. Half-open, it lets one probe call through: a success closes it, a failure opens it again.
+ */
+@Slf4j
+final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String apiName;
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAtMillis;
+    private boolean probing;
+
+    CircuitBreaker(String apiName, int failureThreshold, long openMillis) {
+        this.apiName = apiName;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return whether the call may be sent. A call that is let through must report its outcome.
+     */
+    synchronized boolean tryAcquire() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> {
+                if (System.currentTimeMillis() - openedAtMillis < openMillis) {
+                    yield false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                yield true;
+            }
+            case HALF_OPEN -> {
+                if (probing) {
+                    yield false;
+                }
+                probing = true;
+                yield true;
+            }
+        };
+    }
+
+    synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("{} circuit breaker closed", apiName);
+        }
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    synchronized void onFailure() {
+        probing = false;
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold && state == State.CLOSED) {
+            log.warn("{} circuit breaker opened for {}ms", apiName, openMillis);
+            state = State.OPEN;
+            openedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A cancelled probe decides nothing, the next call probes instead.
+     */
+    synchronized void onCancel() {
+        probing = false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+}
@@ -1,33 +1,152 @@
 package com.kougianos.aggregator.service;
 
+import com.kougianos.aggregator.config.AppProperties;
 import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.dto.RawJsonMap;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import com.kougianos.aggregator.util.LatencyWindow;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Client of the External API. Values that are already queued or in flight never reach it twice, the
+ * {@link com.kougianos.aggregator.queue.PendingKeyRegistry} of the {@link BatchDispatcher} joins their requests to
+ * the pending batch.
+ * <p>
+ * Every API has a {@link CircuitBreaker}, so a dead backend is answered empty right away instead of costing the read
+ * timeout on every batch, and slow calls can be hedged with a duplicate, see {@link AppProperties.HedgePolicy}.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ExternalApiClient {
 
     private final WebClient webClient;
+    private final AggregatorMetrics metrics;
+    private final AppProperties appProperties;
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
 
+    /**
+     * In raw JSON mode the response is a {@link RawJsonMap} whose values are slices of the body.
+     * Nothing is sent, and the circuit breaker is not asked, until the returned Mono is subscribed.
+     */
     public Mono<GenericMap> get(String path, String queryVariables) {
-        return webClient
-            .get()
-            .uri(path + "?q={queryVariables}", queryVariables)
-            .retrieve()
-            .bodyToMono(GenericMap.class)
+        return Mono.defer(() -> exchange(path, queryVariables));
+    }
+
+    private Mono<GenericMap> exchange(String path, String queryVariables) {
+        var circuitBreaker = circuitBreaker(path);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            metrics.recordShortCircuited(path);
+            log.debug("Short-circuited {}?q={}", path, queryVariables);
+            return Mono.just(new GenericMap());
+        }
+
+        var call = Mono.defer(() -> {
+            var retrieve = webClient
+                .get()
+                .uri(path + "?q={queryVariables}", queryVariables)
+                .retrieve();
+            return appProperties.getExternalApi().isRawJson()
+                ? retrieve.bodyToMono(byte[].class).handle(ExternalApiClient::indexRawJson)
+                : retrieve.bodyToMono(GenericMap.class);
+        }).transform(attempt -> metrics.timeExternalCall(path, recordLatency(path, attempt)));
+
+        return hedge(path, call)
+            .doOnSuccess(r -> {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onSuccess();
+                }
+            })
+            .doOnError(e -> {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onFailure();
+                }
+            })
+            .doOnCancel(() -> {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onCancel();
+                }
+            })
             .onErrorResume(e -> {
                 log.warn("Error getting response for {}?q={}\nCause: ", path, queryVariables, e);
                 return Mono.just(new GenericMap());
             })
-            .doOnNext(r -> log.info("Response for {}?q={}: {}", path, queryVariables, r))
-            .cache(Duration.ofSeconds(2));
+            .defaultIfEmpty(new GenericMap())
+            .doOnNext(r -> log.debug("Response for {}?q={}: {}", path, queryVariables, r));
+    }
+
+    /**
+     * Sends a duplicate of the call once it has taken longer than the hedge percentile, the first response wins and
+     * the other call is cancelled.
+     */
+    private Mono<GenericMap> hedge(String path, Mono<GenericMap> call) {
+        var policy = appProperties.getExternalApi().getHedge();
+        if (!policy.isEnabled()) {
+            return call;
+        }
+        var window = latencies(path);
+        long delayNanos;
+        synchronized (window) {
+            if (window.size() < policy.getMinSamples()) {
+                return call;
+            }
+            delayNanos = window.percentile(policy.getPercentile());
+        }
+        var delay = Duration.ofNanos(Math.max(delayNanos, TimeUnit.MILLISECONDS.toNanos(policy.getMinDelayMillis())));
+        return Mono.firstWithValue(call, Mono.delay(delay)
+            .doOnNext(tick -> metrics.recordHedge(path))
+            .then(call));
+    }
+
+    /**
+     * Feeds the latency of successful calls into the window the hedge delay is taken from.
+     */
+    private Mono<GenericMap> recordLatency(String path, Mono<GenericMap> call) {
+        if (!appProperties.getExternalApi().getHedge().isEnabled()) {
+            return call;
+        }
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnSuccess(response -> {
+                var window = latencies(path);
+                synchronized (window) {
+                    window.record(System.nanoTime() - start);
+                }
+            });
+        });
+    }
+
+    private CircuitBreaker circuitBreaker(String path) {
+        var policy = appProperties.getExternalApi().getCircuitBreaker();
+        return policy.isEnabled()
+            ? circuitBreakers.computeIfAbsent(path,
+                key -> new CircuitBreaker(key, policy.getFailureThreshold(), policy.getOpenMillis()))
+            : null;
+    }
+
+    private LatencyWindow latencies(String path) {
+        return latencies.computeIfAbsent(path,
+            key -> new LatencyWindow(appProperties.getExternalApi().getHedge().getWindowSize()));
+    }
+
+    private static void indexRawJson(byte[] body, SynchronousSink<GenericMap> sink) {
+        try {
+            sink.next(RawJsonMap.parse(body));
+        } catch (IOException e) {
+            sink.error(e);
+        }
     }
 
 }
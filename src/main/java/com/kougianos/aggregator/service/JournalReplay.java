@@ -0,0 +1,44 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends the values the queue journals recovered on startup, so the External APIs see the calls that were pending when
+ * the previous process stopped. Nobody waits on their responses any more, they only warm the response cache, so the
+ * values of APIs without a cache ttl are dropped from the journal instead.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class JournalReplay {
+
+    private final QueueManager queueManager;
+    private final BatchDispatcher batchDispatcher;
+    private final AppProperties appProperties;
+    private final AggregatorMetrics metrics;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() {
+        queueManager.getApiQueues().forEach((apiName, queue) -> {
+            var recovered = queue.getRecovered();
+            if (recovered.isEmpty()) {
+                return;
+            }
+            if (appProperties.getCachePolicy(apiName).getTtlMillis() <= 0) {
+                log.info("Dropping {} journaled {} values, their responses are not cached", recovered.size(), apiName);
+                queue.acknowledge(recovered);
+                metrics.recordJournalDropped(apiName, recovered.size());
+                return;
+            }
+            log.info("Replaying {} journaled {} values", recovered.size(), apiName);
+            batchDispatcher.submitAll(apiName, recovered).subscribe();
+        });
+    }
+
+}
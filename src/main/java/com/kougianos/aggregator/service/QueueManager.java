@@ -1,9 +1,19 @@
 package com.kougianos.aggregator.service;
 
+import com.kougianos.aggregator.config.AppProperties;
 import com.kougianos.aggregator.queue.CustomQueue;
+import com.kougianos.aggregator.queue.PendingKeyRegistry;
+import com.kougianos.aggregator.queue.QueueJournal;
+import com.kougianos.aggregator.queue.SpillBuffer;
 import lombok.Getter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -11,19 +21,57 @@ import static com.kougianos.aggregator.dto.Constants.*;
 
 @Getter
 @Service
-public class QueueManager {
+public class QueueManager implements DisposableBean {
+
+    private static final List<String> API_NAMES = List.of(PRICING, TRACK, SHIPMENTS);
 
     private final ConcurrentMap<String, CustomQueue> apiQueues;
+    private final ConcurrentMap<String, PendingKeyRegistry> pendingKeys;
 
     public QueueManager() {
         this.apiQueues = new ConcurrentHashMap<>();
-        this.apiQueues.put(PRICING, new CustomQueue());
-        this.apiQueues.put(TRACK, new CustomQueue());
-        this.apiQueues.put(SHIPMENTS, new CustomQueue());
+        API_NAMES.forEach(apiName -> this.apiQueues.put(apiName, new CustomQueue()));
+
+        this.pendingKeys = new ConcurrentHashMap<>();
+        this.apiQueues.keySet().forEach(apiName -> this.pendingKeys.put(apiName, new PendingKeyRegistry()));
+    }
+
+    /**
+     * Backs every queue with a journal and a spill file if the journal is enabled.
+     */
+    @Autowired
+    public QueueManager(AppProperties appProperties) {
+        this();
+        var journal = appProperties.getJournal();
+        if (!journal.isEnabled()) {
+            return;
+        }
+        var directory = Path.of(journal.getDirectory());
+        try {
+            for (var apiName : API_NAMES) {
+                this.apiQueues.put(apiName, new CustomQueue(
+                    new QueueJournal(directory, apiName, journal.getSegmentBytes()),
+                    new SpillBuffer(directory.resolve(apiName + ".spill"), journal.getSpillBytes()),
+                    journal.getSpillThreshold(), journal.getMaxUnanswered()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the queue journal in " + directory, e);
+        }
     }
 
     public CustomQueue get(String apiName) {
         return apiQueues.get(apiName);
     }
 
+    public PendingKeyRegistry getRegistry(String apiName) {
+        return pendingKeys.get(apiName);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (var queue : apiQueues.values()) {
+            queue.close();
+        }
+    }
+
 }
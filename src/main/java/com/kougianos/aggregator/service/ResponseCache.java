@@ -0,0 +1,87 @@
+package com.kougianos.aggregator.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.queue.PendingRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches External API responses per (api, value), so hot values are answered without being queued at all.
+ * Caffeine bounds every cache by its TTL and by maxEntries with W-TinyLFU eviction.
+ * Only APIs with a {@link AppProperties.CachePolicy} ttl are cached.
+ */
+@Service
+@Slf4j
+public class ResponseCache {
+
+    // cached for values the External API did not return
+    private static final Object EMPTY = new Object();
+
+    private final AppProperties appProperties;
+    private final Map<String, Cache<String, Object>> caches = new HashMap<>();
+
+    public ResponseCache(AppProperties appProperties, MeterRegistry meterRegistry) {
+        this.appProperties = appProperties;
+        appProperties.getCache().forEach((apiName, policy) -> {
+            if (policy.getTtlMillis() <= 0) {
+                return;
+            }
+            Cache<String, Object> cache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(policy.getTtlMillis()))
+                .maximumSize(policy.getMaxEntries())
+                .recordStats()
+                .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "aggregator.cache", "api", apiName);
+            caches.put(apiName, cache);
+            log.info("Caching {} responses for {}ms", apiName, policy.getTtlMillis());
+        });
+    }
+
+    /**
+     * Delivers the cached slice of the value to the request.
+     *
+     * @return false if the value is not cached and has to be requested from the External API.
+     */
+    public boolean deliverCached(String apiName, String value, PendingRequest request) {
+        var cache = caches.get(apiName);
+        if (cache == null) {
+            return false;
+        }
+        var slice = cache.getIfPresent(value);
+        if (slice == null) {
+            return false;
+        }
+        request.deliver(value, slice == EMPTY ? null : slice);
+        return true;
+    }
+
+    /**
+     * Caches the slices of a batch response.
+     */
+    public void store(String apiName, List<String> batch, GenericMap response) {
+        var cache = caches.get(apiName);
+        if (cache == null) {
+            return;
+        }
+        var cacheEmptyResults = appProperties.getCachePolicy(apiName).isCacheEmptyResults() && !response.isEmpty();
+        for (var value : batch) {
+            var slice = response.get(value);
+            if (slice != null) {
+                cache.put(value, slice);
+            } else if (cacheEmptyResults) {
+                cache.put(value, EMPTY);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.kougianos.aggregator.util;
+
+import java.util.Arrays;
+
+/**
+ * The last latencies of something, for percentiles that have to follow its current behaviour rather than all time.
+ * Not thread safe, callers synchronize.
+ */
+public final class LatencyWindow {
+
+    private final long[] samples;
+    private int count;
+
+    public LatencyWindow(int size) {
+        this.samples = new long[size];
+    }
+
+    public void record(long latency) {
+        samples[count++ % samples.length] = latency;
+    }
+
+    public int size() {
+        return Math.min(count, samples.length);
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return the latency at the given percentile of the window, 0 if it is empty.
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        var sorted = Arrays.copyOf(samples, size());
+        Arrays.sort(sorted);
+        return sorted[Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+}
@@ -2,10 +2,17 @@ package com.kougianos.aggregator.util;
 
 import com.kougianos.aggregator.dto.GenericMap;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public final class ServiceUtils {
 
+    // below this many values a linear scan is cheaper than hashing every value
+    private static final int LINEAR_DISTINCT_LIMIT = 16;
+
     private ServiceUtils() {
         throw new IllegalStateException("Util class");
     }
@@ -13,4 +20,31 @@ public final class ServiceUtils {
     public static void removeEmptyEntriesFromMap(Map<String, GenericMap> map) {
         map.entrySet().removeIf(entry -> entry.getValue().isEmpty());
     }
+
+    /**
+     * Splits comma separated values, skipping empty ones and duplicates, in order of first appearance.
+     * Values are {@link ValueInterner interned}.
+     */
+    public static List<String> splitDistinct(String values) {
+        List<String> result = new ArrayList<>();
+        Set<String> seen = null;
+        int start = 0;
+        while (start <= values.length()) {
+            int end = values.indexOf(',', start);
+            if (end < 0) {
+                end = values.length();
+            }
+            if (end > start) {
+                var value = ValueInterner.intern(values, start, end);
+                if (seen == null && result.size() == LINEAR_DISTINCT_LIMIT) {
+                    seen = new HashSet<>(result);
+                }
+                if (seen != null ? seen.add(value) : !result.contains(value)) {
+                    result.add(value);
+                }
+            }
+            start = end + 1;
+        }
+        return result;
+    }
 }
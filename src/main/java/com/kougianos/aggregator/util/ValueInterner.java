@@ -0,0 +1,43 @@
+package com.kougianos.aggregator.util;
+
+/**
+ * Canonical instances of the values requests ask for. Order numbers and country codes repeat across requests, so
+ * looking a value up by its characters returns the instance parsed before instead of a new substring, and its hash
+ * code is cached already when it is queued, registered and cached.
+ * <p>
+ * A direct-mapped table of a fixed size: a value only replaces the one in its slot, so the table never grows and
+ * lookups never lock. Racing writes can only cost an extra substring.
+ */
+public final class ValueInterner {
+
+    private static final int SLOTS = 1 << 16;
+    private static final String[] TABLE = new String[SLOTS];
+
+    private ValueInterner() {
+        throw new IllegalStateException("Util class");
+    }
+
+    public static String intern(String value) {
+        return intern(value, 0, value.length());
+    }
+
+    /**
+     * @return the canonical instance of source.substring(start, end).
+     */
+    public static String intern(String source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        var slot = (hash ^ hash >>> 16) & (SLOTS - 1);
+        var interned = TABLE[slot];
+        var length = end - start;
+        if (interned != null && interned.length() == length && interned.regionMatches(0, source, start, length)) {
+            return interned;
+        }
+        interned = start == 0 && end == source.length() ? source : source.substring(start, end);
+        TABLE[slot] = interned;
+        return interned;
+    }
+
+}
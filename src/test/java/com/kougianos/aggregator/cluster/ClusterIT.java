@@ -0,0 +1,141 @@
+package com.kougianos.aggregator.cluster;
+
+import com.kougianos.aggregator.Application;
+import com.kougianos.aggregator.dto.GenericMap;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two aggregator instances on localhost in one cluster, in front of one External API.
+ */
+class ClusterIT {
+
+    private static final String SECRET = "cluster-it-secret";
+    private static final List<String> requestedValues = Collections.synchronizedList(new ArrayList<>());
+    private static final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+    private static final List<String> urls = new ArrayList<>();
+    private static MockWebServer server;
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                var values = request.getRequestUrl().queryParameter("q").split(",");
+                requestedValues.addAll(List.of(values));
+                var body = IntStream.range(0, values.length)
+                    .mapToObj(i -> "\"" + values[i] + "\": \"NEW\"")
+                    .collect(Collectors.joining(",", "{", "}"));
+                return new MockResponse()
+                    .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .setBody(body)
+                    .setBodyDelay(500, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+
+        var ports = List.of(freePort(), freePort());
+        ports.forEach(port -> urls.add("http://localhost:" + port));
+        for (int i = 0; i < ports.size(); i++) {
+            instances.add(new SpringApplicationBuilder(Application.class).run(
+                "--server.port=" + ports.get(i),
+                "--app.external-api.url=http://localhost:" + server.getPort(),
+                "--app.enable-queue-scheduler=true",
+                "--app.batching.track.max-batch-size=100",
+                "--app.batching.track.max-linger-millis=1000",
+                "--app.cluster.enabled=true",
+                "--app.cluster.self=" + urls.get(i),
+                "--app.cluster.peers=" + String.join(",", urls),
+                "--app.cluster.secret=" + SECRET));
+        }
+    }
+
+    @AfterAll
+    static void afterAll() throws IOException {
+        instances.forEach(ConfigurableApplicationContext::close);
+        server.shutdown();
+    }
+
+    /**
+     * Both instances are asked for the same 20 values at the same time.
+     * Expect both to answer every value, with every value requested from the External API exactly once,
+     * by the instance that owns it.
+     */
+    @Test
+    void testValuesAreBatchedByTheirOwner() {
+        var values = IntStream.rangeClosed(1, 20).mapToObj(String::valueOf).toList();
+        var responses = Mono.zip(urls.stream().map(url -> WebClient.create(url)
+                .get()
+                .uri("/aggregation?track=" + String.join(",", values))
+                .retrieve()
+                .bodyToMono(GenericMap.class)).toList(), List::of)
+            .block();
+
+        for (var response : responses) {
+            var track = (Map<?, ?>) ((GenericMap) response).get("track");
+            assertEquals(values.size(), track.size());
+        }
+        assertEquals(values.size(), requestedValues.size());
+        assertEquals(Set.copyOf(values), Set.copyOf(requestedValues));
+        assertTrue(server.getRequestCount() <= 2);
+    }
+
+    /**
+     * Values are posted to the internal endpoint without the secret of the cluster, and with a wrong one.
+     * Expect both to be rejected with 403 before anything is requested from the External API.
+     */
+    @Test
+    void testForwardedValuesRequireSecret() {
+        var requestCount = server.getRequestCount();
+        for (var secret : List.of("", "wrong")) {
+            var status = WebClient.create(urls.get(0))
+                .post()
+                .uri(ClusterDispatcher.FORWARD_PATH, "track")
+                .headers(headers -> {
+                    if (!secret.isEmpty()) {
+                        headers.set(ClusterDispatcher.SECRET_HEADER, secret);
+                    }
+                })
+                .bodyValue(List.of("secret-1"))
+                .exchangeToMono(response -> Mono.just(response.statusCode()))
+                .block();
+
+            assertEquals(HttpStatus.FORBIDDEN, status);
+        }
+        assertEquals(requestCount, server.getRequestCount());
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
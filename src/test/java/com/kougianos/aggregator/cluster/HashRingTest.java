@@ -0,0 +1,54 @@
+package com.kougianos.aggregator.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashRingTest {
+
+    private static final List<String> PEERS = List.of("http://a:8080", "http://b:8080", "http://c:8080");
+
+    @Test
+    void testInstancesAgreeOnOwners() {
+        var ring = new HashRing(PEERS, 128);
+        var otherRing = new HashRing(List.of(PEERS.get(2), PEERS.get(0), PEERS.get(1)), 128);
+        for (int value = 0; value < 1000; value++) {
+            assertEquals(ring.ownerOf("track", String.valueOf(value)),
+                otherRing.ownerOf("track", String.valueOf(value)));
+        }
+    }
+
+    @Test
+    void testValuesSpreadEvenly() {
+        var ring = new HashRing(PEERS, 128);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int value = 100_000_000; value < 100_030_000; value++) {
+            owned.merge(ring.ownerOf("shipments", String.valueOf(value)), 1, Integer::sum);
+        }
+        assertEquals(PEERS.size(), owned.size());
+        owned.values().forEach(count -> assertTrue(count > 7_000 && count < 13_000, "owned " + count));
+    }
+
+    @Test
+    void testAddingPeerOnlyMovesValuesToIt() {
+        var ring = new HashRing(PEERS, 128);
+        var newPeer = "http://d:8080";
+        var grownRing = new HashRing(List.of(PEERS.get(0), PEERS.get(1), PEERS.get(2), newPeer), 128);
+        int moved = 0;
+        for (int value = 0; value < 10_000; value++) {
+            var owner = ring.ownerOf("pricing", "NL" + value);
+            var newOwner = grownRing.ownerOf("pricing", "NL" + value);
+            if (!owner.equals(newOwner)) {
+                assertEquals(newPeer, newOwner);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1_500 && moved < 3_500, "moved " + moved);
+    }
+
+}
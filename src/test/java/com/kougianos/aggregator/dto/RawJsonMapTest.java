@@ -0,0 +1,53 @@
+package com.kougianos.aggregator.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RawJsonMapTest {
+
+    @Test
+    void testParseIndexesTopLevelValues() throws IOException {
+        var body = """
+            {
+                "1" : "DELIVERING",
+                "NL": 53.786320622647764,
+                "2": ["box", "pallet"],
+                "3": {"nested": [1, {"a": "}"}]},
+                "4": null,
+                "5": true
+            }""".getBytes(StandardCharsets.UTF_8);
+
+        var map = RawJsonMap.parse(body);
+
+        assertEquals(List.of("1", "NL", "2", "3", "4", "5"), List.copyOf(map.keySet()));
+        assertEquals("\"DELIVERING\"", map.get("1").toString());
+        assertEquals("53.786320622647764", map.get("NL").toString());
+        assertEquals("[\"box\", \"pallet\"]", map.get("2").toString());
+        assertEquals("{\"nested\": [1, {\"a\": \"}\"}]}", map.get("3").toString());
+        assertEquals("null", map.get("4").toString());
+        assertEquals("true", map.get("5").toString());
+        assertSame(body, map.getBody());
+    }
+
+    @Test
+    void testSlicesAreWrittenRaw() throws IOException {
+        var map = RawJsonMap.parse("{\"2\": [\"box\",\"pallet\"], \"DE\": 38.5}".getBytes(StandardCharsets.UTF_8));
+        var response = new GenericMap();
+        response.put("shipments", map);
+
+        assertEquals("{\"shipments\":{\"2\":[\"box\",\"pallet\"],\"DE\":38.5}}",
+            new ObjectMapper().writeValueAsString(response));
+    }
+
+    @Test
+    void testParseRejectsNonObjects() {
+        assertThrows(IOException.class, () -> RawJsonMap.parse("[1, 2]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
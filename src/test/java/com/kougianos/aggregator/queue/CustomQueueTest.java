@@ -0,0 +1,67 @@
+package com.kougianos.aggregator.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static com.kougianos.aggregator.queue.CustomQueue.AddResult.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomQueueTest {
+
+    @Test
+    void testAddIfAbsent() {
+        var queue = new CustomQueue();
+
+        assertEquals(FIRST, queue.addIfAbsent("1", 3));
+        assertEquals(DUPLICATE, queue.addIfAbsent("1", 3));
+        assertEquals(ADDED, queue.addIfAbsent("2", 3));
+        assertEquals(FULL, queue.addIfAbsent("3", 3));
+        assertEquals(FULL, queue.addIfAbsent("4", 3));
+        assertEquals(4, queue.size());
+        assertTrue(queue.contains("4"));
+    }
+
+    @Test
+    void testDrainStartsNewBatch() {
+        var queue = new CustomQueue();
+        queue.addIfAbsent("1", 5);
+        queue.addIfAbsent("2", 5);
+        var batchId = queue.getBatchId();
+
+        assertEquals(List.of("1", "2"), queue.drain());
+        assertTrue(queue.isEmpty());
+        assertFalse(queue.contains("1"));
+        assertNotEquals(batchId, queue.getBatchId());
+        assertEquals(FIRST, queue.addIfAbsent("1", 5));
+    }
+
+    /**
+     * 8 producers add every value twice while the queue is drained concurrently.
+     * No batch may hold a value twice and no value may get lost.
+     */
+    @Test
+    void testConcurrentAddAndDrain() {
+        var queue = new CustomQueue();
+        List<List<String>> batches = new ArrayList<>();
+
+        var producers = IntStream.range(0, 8)
+            .mapToObj(p -> CompletableFuture.runAsync(() ->
+                IntStream.range(0, 10_000).forEach(i -> queue.addIfAbsent(String.valueOf(i % 5_000 + p * 5_000), 50))))
+            .toArray(CompletableFuture[]::new);
+        var all = CompletableFuture.allOf(producers);
+        while (!all.isDone()) {
+            batches.add(queue.drain());
+        }
+        batches.add(queue.drain());
+
+        batches.forEach(batch -> assertEquals(batch.size(), new HashSet<>(batch).size()));
+        assertEquals(40_000, batches.stream().flatMap(List::stream).distinct().count());
+        assertTrue(queue.isEmpty());
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.kougianos.aggregator.queue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueueJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRecoversUnacknowledgedValues() throws IOException {
+        try (var queue = journaledQueue(1024, 100)) {
+            queue.addIfAbsent("1", 5);
+            queue.addIfAbsent("2", 5);
+            queue.acknowledge(queue.drain());
+            queue.addIfAbsent("3", 5);
+            queue.addIfAbsent("4", 5);
+            // drained but never answered
+            queue.drain();
+            queue.addIfAbsent("5", 5);
+        }
+
+        try (var queue = journaledQueue(1024, 100)) {
+            assertEquals(List.of("3", "4", "5"), queue.getRecovered());
+        }
+    }
+
+    @Test
+    void testCapsUnansweredValuesDuringOutage() throws IOException {
+        try (var queue = journaledQueue(1024, 100, 5)) {
+            int dropped = 0;
+            for (int batch = 0; batch < 10; batch++) {
+                queue.addIfAbsent(batch + "a", 2);
+                queue.addIfAbsent(batch + "b", 2);
+                // every call of the outage fails
+                dropped += queue.retainFailed(queue.drain());
+            }
+            assertEquals(15, dropped);
+        }
+
+        try (var queue = journaledQueue(1024, 100, 5)) {
+            assertEquals(List.of("0a", "0b", "1a", "1b", "2b"), queue.getRecovered());
+        }
+    }
+
+    @Test
+    void testRollsOverFullSegment() throws IOException {
+        try (var queue = journaledQueue(64, 100)) {
+            IntStream.range(0, 50).forEach(i -> {
+                queue.addIfAbsent(String.valueOf(i), 100);
+                if (i % 10 == 9) {
+                    queue.acknowledge(queue.drain());
+                }
+            });
+            queue.addIfAbsent("pending", 100);
+        }
+
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.filter(path -> path.toString().endsWith(".journal")).count());
+        }
+        try (var queue = journaledQueue(64, 100)) {
+            assertEquals(List.of("pending"), queue.getRecovered());
+        }
+    }
+
+    @Test
+    void testSpillsBeyondThreshold() throws IOException {
+        try (var queue = journaledQueue(1024, 2)) {
+            IntStream.range(0, 5).forEach(i -> queue.addIfAbsent(String.valueOf(i), 10));
+
+            assertEquals(5, queue.size());
+            assertFalse(queue.contains("4"));
+            assertEquals(List.of("0", "1", "2", "3", "4"), queue.drain());
+            assertTrue(queue.isEmpty());
+            assertEquals(CustomQueue.AddResult.FIRST, queue.addIfAbsent("5", 10));
+        }
+    }
+
+    @Test
+    void testReadsSpilledValuesBackPerBatch() throws IOException {
+        try (var queue = journaledQueue(1024, 2)) {
+            IntStream.range(0, 6).forEach(i -> queue.addIfAbsent(String.valueOf(i), 10));
+
+            assertEquals(List.of("0", "1", "2"), queue.drain(3));
+            // spilled values are still waiting, so this one queues behind them
+            queue.addIfAbsent("6", 10);
+            assertEquals(List.of("3", "4", "5"), queue.drain(3));
+            assertEquals(List.of("6"), queue.drain(3));
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    void testReusesSpillFileOnceRead() throws IOException {
+        try (var queue = journaledQueue(64 * 1024, 0)) {
+            // 12 bytes per value, the second 50 only fit in the 1024 byte spill file after the read ones are dropped
+            IntStream.range(0, 50).forEach(i -> queue.addIfAbsent("value-%04d".formatted(i), 1000));
+            assertEquals(40, queue.drain(40).size());
+            IntStream.range(50, 100).forEach(i -> queue.addIfAbsent("value-%04d".formatted(i), 1000));
+
+            assertFalse(queue.contains("value-0099"));
+            assertEquals(IntStream.range(40, 100).mapToObj("value-%04d"::formatted).toList(), queue.drain(100));
+        }
+    }
+
+    private CustomQueue journaledQueue(int segmentBytes, int spillThreshold) throws IOException {
+        return journaledQueue(segmentBytes, spillThreshold, Integer.MAX_VALUE);
+    }
+
+    private CustomQueue journaledQueue(int segmentBytes, int spillThreshold, int maxUnanswered) throws IOException {
+        return new CustomQueue(new QueueJournal(directory, "pricing", segmentBytes),
+            new SpillBuffer(directory.resolve("pricing.spill"), 1024), spillThreshold, maxUnanswered);
+    }
+
+}
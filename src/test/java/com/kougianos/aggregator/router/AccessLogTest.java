@@ -0,0 +1,28 @@
+package com.kougianos.aggregator.router;
+
+import com.kougianos.aggregator.dto.GenericMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AccessLogTest {
+
+    @Test
+    void testAbbreviatesLongBodies() {
+        var pricing = new GenericMap();
+        pricing.put("NL", 14.24);
+        pricing.put("CN", 20.5);
+        Map<String, GenericMap> response = new LinkedHashMap<>();
+        response.put("pricing", pricing);
+        response.put("track", null);
+
+        assertEquals("{pricing={NL=14.24, CN=20.5}, track=null}",
+            new AccessLog.Abbreviated(response, 100).toString());
+        assertEquals("{pricing={NL=14.24, CN=2...", new AccessLog.Abbreviated(response, 24).toString());
+        assertEquals("stre...", new AccessLog.Abbreviated("streamed", 4).toString());
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.kougianos.aggregator.router;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import com.kougianos.aggregator.service.QueueManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.reactive.result.view.ViewResolver;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimitFilterTest {
+
+    @Test
+    void testLimitShrinksWhenLatencyRisesAndGrowsBackWhenItHolds() {
+        var limit = new ConcurrencyLimit(100, 10, 1000, 1.5);
+        for (int i = 0; i < 10; i++) {
+            limit.update(100, 100);
+        }
+        var grown = limit.get();
+        assertTrue(grown > 100);
+
+        for (int i = 0; i < 10; i++) {
+            limit.update(1000, grown);
+        }
+        assertTrue(limit.get() < grown);
+
+        var shrunk = limit.get();
+        limit.update(100, 1);
+        assertEquals(shrunk, limit.get());
+    }
+
+    @Test
+    void testExcessRequestsAreRejected() {
+        var appProperties = new AppProperties();
+        appProperties.getLimiter().setInitialLimit(2);
+        appProperties.getLimiter().setMinLimit(2);
+        appProperties.getLimiter().setMaxLimit(2);
+        appProperties.getLimiter().setRetryAfterSeconds(3);
+        appProperties.getLimiter().getBulkhead().put("shipments", 1);
+        var queueManager = new QueueManager();
+        var filter = new ConcurrencyLimitFilter(appProperties,
+            new AggregatorMetrics(new SimpleMeterRegistry(), queueManager));
+        Sinks.One<ServerResponse> pending = Sinks.one();
+        List<ServerResponse> admitted = new ArrayList<>();
+
+        filter.filter(request("shipments"), request -> pending.asMono()).subscribe(admitted::add);
+        StepVerifier.create(filter.filter(request("shipments"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE
+                && "3".equals(response.headers().getFirst(HttpHeaders.RETRY_AFTER)))
+            .verifyComplete();
+
+        filter.filter(request("track"), request -> pending.asMono()).subscribe(admitted::add);
+        StepVerifier.create(filter.filter(request("track"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE)
+            .verifyComplete();
+
+        // slots are held until the responses are written
+        pending.tryEmitValue(ServerResponse.ok().build().block());
+        StepVerifier.create(filter.filter(request("pricing"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE)
+            .verifyComplete();
+
+        admitted.forEach(response -> response.writeTo(MockServerWebExchange.from(MockServerHttpRequest.get("/")),
+            CONTEXT).block());
+        StepVerifier.create(filter.filter(request("shipments"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.OK)
+            .verifyComplete();
+    }
+
+    /**
+     * A slow bulk lookup completes while interactive requests use the limit.
+     * Expect its latency to leave the limit alone, and a second bulk lookup over bulkLimit to be rejected.
+     */
+    @Test
+    void testSlowBulkRequestDoesNotLowerLimit() throws InterruptedException {
+        var appProperties = new AppProperties();
+        appProperties.getLimiter().setInitialLimit(100);
+        appProperties.getLimiter().setMaxLimit(100);
+        appProperties.getLimiter().setBulkLimit(1);
+        var meterRegistry = new SimpleMeterRegistry();
+        var filter = new ConcurrencyLimitFilter(appProperties, new AggregatorMetrics(meterRegistry, new QueueManager()));
+        var limit = meterRegistry.get("aggregator.concurrency.limit").gauge();
+        // the first response written in the JVM is slow, keep that out of the long-term latency
+        write(ServerResponse.ok().build().block());
+        // fast interactive requests set the long-term latency, and keep the limit in use
+        Sinks.One<ServerResponse> pending = Sinks.one();
+        List<ServerResponse> admitted = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            filter.filter(request("track"), request -> pending.asMono()).subscribe(admitted::add);
+        }
+        write(filter.filter(request("track"), request -> ServerResponse.ok().build()).block());
+        var before = limit.value();
+
+        Sinks.One<ServerResponse> bulk = Sinks.one();
+        List<ServerResponse> bulkAdmitted = new ArrayList<>();
+        filter.bulk().filter(MockServerRequest.builder().build(), request -> bulk.asMono())
+            .subscribe(bulkAdmitted::add);
+        StepVerifier.create(filter.bulk().filter(MockServerRequest.builder().build(),
+                request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE)
+            .verifyComplete();
+        Thread.sleep(200);
+        bulk.tryEmitValue(ServerResponse.ok().build().block());
+        bulkAdmitted.forEach(ConcurrencyLimitFilterTest::write);
+
+        assertEquals(before, limit.value());
+        StepVerifier.create(filter.filter(request("track"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.OK)
+            .verifyComplete();
+    }
+
+    /**
+     * A batch of track values forwarded by another instance is in flight while track has a bulkhead of 1.
+     * Expect a second forwarded batch and a track request to be rejected, and the other APIs to be admitted.
+     */
+    @Test
+    void testForwardedValuesTakeBulkheadSlot() {
+        var appProperties = new AppProperties();
+        appProperties.getLimiter().getBulkhead().put("track", 1);
+        var filter = new ConcurrencyLimitFilter(appProperties,
+            new AggregatorMetrics(new SimpleMeterRegistry(), new QueueManager()));
+        Sinks.One<ServerResponse> pending = Sinks.one();
+        List<ServerResponse> admitted = new ArrayList<>();
+
+        filter.forwarded().filter(forwarded("track"), request -> pending.asMono()).subscribe(admitted::add);
+        StepVerifier.create(filter.forwarded().filter(forwarded("track"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE)
+            .verifyComplete();
+        StepVerifier.create(filter.filter(request("track"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE)
+            .verifyComplete();
+        StepVerifier.create(filter.forwarded().filter(forwarded("pricing"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.OK)
+            .verifyComplete();
+
+        pending.tryEmitValue(ServerResponse.ok().build().block());
+        admitted.forEach(ConcurrencyLimitFilterTest::write);
+        StepVerifier.create(filter.forwarded().filter(forwarded("track"), request -> ServerResponse.ok().build()))
+            .expectNextMatches(response -> response.statusCode() == HttpStatus.OK)
+            .verifyComplete();
+    }
+
+    private static void write(ServerResponse response) {
+        response.writeTo(MockServerWebExchange.from(MockServerHttpRequest.get("/")), CONTEXT).block();
+    }
+
+    private static final ServerResponse.Context CONTEXT = new ServerResponse.Context() {
+        @Override
+        public List<HttpMessageWriter<?>> messageWriters() {
+            return HandlerStrategies.withDefaults().messageWriters();
+        }
+
+        @Override
+        public List<ViewResolver> viewResolvers() {
+            return List.of();
+        }
+    };
+
+    private static MockServerRequest request(String apiName) {
+        return MockServerRequest.builder().queryParam(apiName, "1").build();
+    }
+
+    private static MockServerRequest forwarded(String apiName) {
+        return MockServerRequest.builder().pathVariable("apiName", apiName).build();
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdaptiveBatchControllerTest {
+
+    @Test
+    void testLimitsGrowWhileLatencyIsFlat() {
+        var controller = controller(true);
+        for (int i = 0; i < 20; i++) {
+            controller.record("track", 100, 200, false);
+        }
+        assertEquals(8, controller.getBatchSize("track"));
+        assertEquals(1000, controller.getLingerMillis("track"));
+    }
+
+    @Test
+    void testLimitsAreHalvedOnErrorsAndSlowBatches() {
+        var controller = controller(true);
+        controller.record("track", 100, 200, true);
+        assertEquals(2, controller.getBatchSize("track"));
+        assertEquals(500, controller.getLingerMillis("track"));
+
+        controller.record("track", 900, 200, false);
+        assertEquals(1, controller.getBatchSize("track"));
+        assertEquals(250, controller.getLingerMillis("track"));
+
+        controller.record("track", 100, 200, true);
+        assertEquals(1, controller.getBatchSize("track"));
+        assertEquals(200, controller.getLingerMillis("track"));
+    }
+
+    @Test
+    void testFlushPolicyIsUsedWhenDisabled() {
+        var controller = controller(false);
+        controller.record("track", 100, 200, true);
+        assertEquals(5, controller.getBatchSize("track"));
+        assertEquals(1000, controller.getLingerMillis("track"));
+        assertEquals(5, controller.getBatchSize("pricing"));
+    }
+
+    private static AdaptiveBatchController controller(boolean enabled) {
+        var policy = new AppProperties.FlushPolicy();
+        policy.setMaxLingerMillis(1000);
+        policy.getAdaptive().setEnabled(enabled);
+        policy.getAdaptive().setMaxBatchSize(8);
+        policy.getAdaptive().setMinLingerMillis(200);
+        policy.getAdaptive().setTargetP99Millis(1000);
+        var appProperties = new AppProperties();
+        appProperties.getBatching().put("track", policy);
+        var queueManager = new QueueManager();
+        return new AdaptiveBatchController(appProperties,
+            new AggregatorMetrics(new SimpleMeterRegistry(), queueManager));
+    }
+
+}
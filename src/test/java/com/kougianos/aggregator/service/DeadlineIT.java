@@ -0,0 +1,148 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.dto.Deadline;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.dto.Priority;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against a slow backend, so the External API calls of expired requests are really sent and really cancelled.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureWebTestClient(timeout = "36000")
+@DirtiesContext
+class DeadlineIT {
+
+    private static final AtomicInteger calls = new AtomicInteger();
+    private static DisposableServer server;
+    private static volatile Mono<Void> gate;
+    private static volatile CountDownLatch received;
+    private static volatile CountDownLatch cancelled;
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @Autowired
+    QueueManager queueManager;
+
+    @BeforeAll
+    static void beforeAll() {
+        server = HttpServer.create()
+            .port(0)
+            .handle((request, response) -> {
+                var value = request.uri().substring(request.uri().indexOf("q=") + 2);
+                calls.incrementAndGet();
+                received.countDown();
+                // answers once the gate of the test opens
+                return response
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .sendString(gate
+                        .thenReturn("{\"" + value + "\": 1.5}")
+                        .doOnCancel(() -> cancelled.countDown()));
+            })
+            .bindNow();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        server.disposeNow();
+    }
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("app.external-api.url", () -> "http://localhost:" + server.port());
+    }
+
+    /**
+     * Backend takes 10 seconds, the only request waiting on the batch has 1 second.
+     * Expect a null pricing section after 1 second, and the External API call to be cancelled.
+     */
+    @Test
+    void testExpiredBatchCancelsCall() throws InterruptedException {
+        open(Mono.delay(Duration.ofSeconds(10)).then());
+
+        webTestClient.get()
+            .uri("/aggregation?pricing=XX")
+            .header(Priority.HEADER, "high")
+            .header(Deadline.HEADER, "1000")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(GenericMap.class)
+            .value(response -> assertEquals(Collections.singletonMap("pricing", null), response));
+
+        assertTrue(cancelled.await(3, TimeUnit.SECONDS));
+    }
+
+    /**
+     * The backend only answers once a second request has joined the in-flight value and the request that sent the
+     * batch has expired. The first request has 3 seconds, the second one 10 seconds.
+     * Expect the call to outlive the first request, and the second one to get its value from the same call.
+     */
+    @Test
+    void testLaterJoinerKeepsCall() throws InterruptedException {
+        var release = Sinks.empty();
+        open(release.asMono().then());
+        var registry = queueManager.getRegistry("pricing");
+
+        var first = CompletableFuture.runAsync(() -> webTestClient.get()
+            .uri("/aggregation?pricing=YY")
+            .header(Priority.HEADER, "high")
+            .header(Deadline.HEADER, "3000")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(GenericMap.class)
+            .value(response -> assertEquals(Collections.singletonMap("pricing", null), response)));
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+
+        var second = CompletableFuture.runAsync(() -> webTestClient.get()
+            .uri("/aggregation?pricing=YY")
+            .header(Deadline.HEADER, "10000")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(GenericMap.class)
+            .value(response -> assertEquals(Map.of("pricing", Map.of("YY", 1.5)), response)));
+        while (registry.getWaiterCount("YY") < 2) {
+            Thread.sleep(10);
+        }
+        first.join();
+        release.tryEmitEmpty();
+        second.join();
+
+        assertEquals(1, calls.get());
+        assertEquals(1, cancelled.getCount());
+    }
+
+    private static void open(Mono<Void> gate) {
+        DeadlineIT.gate = gate;
+        calls.set(0);
+        received = new CountDownLatch(1);
+        cancelled = new CountDownLatch(1);
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.metrics.AggregatorMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExternalApiClientResilienceTest {
+
+    private MockWebServer server;
+    private AppProperties appProperties;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        var externalApi = new AppProperties.ExternalApi();
+        externalApi.setUrl(server.url("/").toString());
+        appProperties = new AppProperties();
+        appProperties.setExternalApi(externalApi);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * External API keeps returning 503.
+     * After failureThreshold calls the breaker opens and calls are answered empty without reaching the server.
+     */
+    @Test
+    void testOpenCircuitBreakerShortCircuitsCalls() {
+        appProperties.getExternalApi().getCircuitBreaker().setFailureThreshold(3);
+        var client = client();
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(HttpStatus.SERVICE_UNAVAILABLE.value()));
+            StepVerifier.create(client.get("shipments", String.valueOf(i)))
+                .expectNext(new GenericMap())
+                .verifyComplete();
+        }
+
+        StepVerifier.create(client.get("shipments", "4"))
+            .expectNext(new GenericMap())
+            .verifyComplete();
+        assertEquals(3, server.getRequestCount());
+    }
+
+    /**
+     * One call is much slower than the ones before it.
+     * A duplicate is sent after the hedge delay and its response is used.
+     */
+    @Test
+    void testSlowCallIsHedged() {
+        appProperties.getExternalApi().getHedge().setEnabled(true);
+        appProperties.getExternalApi().getHedge().setMinSamples(3);
+        var client = client();
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(response());
+            StepVerifier.create(client.get("track", String.valueOf(i)))
+                .expectNextCount(1)
+                .verifyComplete();
+        }
+
+        server.enqueue(response().setBodyDelay(4, TimeUnit.SECONDS));
+        server.enqueue(response());
+        var expected = new GenericMap();
+        expected.put("1", "NEW");
+        StepVerifier.create(client.get("track", "1"))
+            .expectNext(expected)
+            .expectComplete()
+            .verify(Duration.ofSeconds(3));
+        assertEquals(5, server.getRequestCount());
+    }
+
+    private ExternalApiClient client() {
+        return new ExternalApiClient(WebClient.create(appProperties.getExternalApi().getUrl()),
+            new AggregatorMetrics(new SimpleMeterRegistry(), new QueueManager()), appProperties);
+    }
+
+    private static MockResponse response() {
+        return new MockResponse()
+            .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .setBody("{\"1\": \"NEW\"}");
+    }
+
+}
@@ -21,6 +21,8 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @DirtiesContext
 class ExternalApiClientTest {
@@ -125,4 +127,18 @@ class ExternalApiClientTest {
 
     }
 
+    /**
+     * A call that is never subscribed sends nothing.
+     */
+    @Test
+    @SneakyThrows
+    void testUnsubscribedCallSendsNothing() {
+        var requestCount = server.getRequestCount();
+
+        externalApiClient.get("track", "7");
+        Thread.sleep(200);
+
+        assertEquals(requestCount, server.getRequestCount());
+    }
+
 }
@@ -0,0 +1,94 @@
+package com.kougianos.aggregator.service;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "app.external-api.raw-json=true")
+@AutoConfigureWebTestClient(timeout = "36000")
+@DirtiesContext
+class RawJsonModeIT {
+
+    private static MockWebServer server;
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                var body = request.getPath().startsWith("/shipments")
+                    ? """
+                    {"1": ["envelope"], "2": ["box", "pallet"], "3": ["envelope"], "4": ["pallet"], "5": []}"""
+                    : """
+                    {"NL": 53.786320622647764, "CN": 94.16, "CH": 1.87, "GB": 99.5, "DE": 38.5}""";
+                return new MockResponse()
+                    .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .setBody(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterAll
+    static void afterAll() throws IOException {
+        server.shutdown();
+    }
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("app.external-api.url", () -> "http://localhost:" + server.getPort());
+    }
+
+    /**
+     * Backend values are written back byte for byte, the number keeps all its digits.
+     */
+    @Test
+    void testSlicesAreWrittenRaw() {
+        webTestClient.get()
+            .uri("/aggregation?pricing=NL,CN,CH,GB,DE&shipments=2,1,3,4,5&track=")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentType(MediaType.APPLICATION_JSON)
+            .expectBody()
+            .jsonPath("$.pricing.NL").isEqualTo(53.786320622647764)
+            .jsonPath("$.pricing.DE").isEqualTo(38.5)
+            .jsonPath("$.shipments.2[1]").isEqualTo("pallet")
+            .jsonPath("$.shipments.5").isEmpty()
+            .jsonPath("$.track").isEmpty();
+    }
+
+    /**
+     * The request asks for exactly the values of the batch, so the backend body is written as it was received.
+     */
+    @Test
+    void testWholeResponseIsPassedThrough() {
+        webTestClient.get()
+            .uri("/aggregation?pricing=CN,NL,CH,GB,DE")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class)
+            .isEqualTo("""
+                {"pricing":{"NL": 53.786320622647764, "CN": 94.16, "CH": 1.87, "GB": 99.5, "DE": 38.5}}""");
+    }
+
+}
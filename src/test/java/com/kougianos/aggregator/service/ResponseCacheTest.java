@@ -0,0 +1,63 @@
+package com.kougianos.aggregator.service;
+
+import com.kougianos.aggregator.config.AppProperties;
+import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.queue.PendingRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+
+    @Test
+    void testCachedValuesAreDelivered() {
+        var responseCache = new ResponseCache(properties(false), new SimpleMeterRegistry());
+        var response = new GenericMap();
+        response.put("1", "DELIVERING");
+        responseCache.store("track", List.of("1", "2"), response);
+
+        var request = new PendingRequest(2);
+        assertTrue(responseCache.deliverCached("track", "1", request));
+        assertFalse(responseCache.deliverCached("track", "2", request));
+        assertFalse(responseCache.deliverCached("pricing", "1", request));
+
+        request.deliver("2", "NEW");
+        var expected = new GenericMap();
+        expected.put("1", "DELIVERING");
+        expected.put("2", "NEW");
+        StepVerifier.create(request.response())
+            .expectNext(expected)
+            .verifyComplete();
+    }
+
+    @Test
+    void testEmptyResultsAreOnlyCachedFromPartialResponses() {
+        var responseCache = new ResponseCache(properties(true), new SimpleMeterRegistry());
+        responseCache.store("track", List.of("1"), new GenericMap());
+        assertFalse(responseCache.deliverCached("track", "1", new PendingRequest(1)));
+
+        var response = new GenericMap();
+        response.put("2", "NEW");
+        responseCache.store("track", List.of("1", "2"), response);
+        var request = new PendingRequest(1);
+        assertTrue(responseCache.deliverCached("track", "1", request));
+        StepVerifier.create(request.response())
+            .expectNext(new GenericMap())
+            .verifyComplete();
+    }
+
+    private static AppProperties properties(boolean cacheEmptyResults) {
+        var policy = new AppProperties.CachePolicy();
+        policy.setTtlMillis(60_000);
+        policy.setCacheEmptyResults(cacheEmptyResults);
+        var appProperties = new AppProperties();
+        appProperties.getCache().put("track", policy);
+        return appProperties;
+    }
+
+}
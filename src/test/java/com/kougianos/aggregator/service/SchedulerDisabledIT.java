@@ -1,24 +1,36 @@
 package com.kougianos.aggregator.service;
 
+import com.kougianos.aggregator.dto.Deadline;
 import com.kougianos.aggregator.dto.GenericMap;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -36,6 +48,9 @@ class SchedulerDisabledIT {
     @Autowired
     WebTestClient webTestClient;
 
+    @Autowired
+    BatchDispatcher batchDispatcher;
+
     @Test
     void testTrackResponse_OK() {
 
@@ -379,6 +394,223 @@ class SchedulerDisabledIT {
 
     }
 
+    /**
+     * Shipments take 2 seconds, track answers right away.
+     * Expect the track section to be streamed first and shipments to follow, as NDJSON or server-sent events.
+     */
+    @Test
+    void testStreamingResponse_FastApiFirst() {
+        var trackResponse = new GenericMap();
+        trackResponse.put("1", "DELIVERING");
+        var shipmentsResponse = new GenericMap();
+        shipmentsResponse.put("1", List.of("box"));
+        Mockito.when(externalApiClient.get(eq("track"), anyString()))
+            .thenReturn(Mono.just(trackResponse));
+        Mockito.when(externalApiClient.get(eq("shipments"), anyString()))
+            .thenReturn(Mono.just(shipmentsResponse).delayElement(Duration.ofSeconds(2)));
+
+        var ndjson = webTestClient.get()
+            .uri("/aggregation?track=1,2,3,4,5&shipments=1,2,3,4,5")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentType(MediaType.APPLICATION_NDJSON)
+            .returnResult(GenericMap.class)
+            .getResponseBody();
+        StepVerifier.create(ndjson)
+            .expectNext(section("track", trackResponse))
+            .expectNext(section("shipments", shipmentsResponse))
+            .verifyComplete();
+
+        var events = webTestClient.get()
+            .uri("/aggregation?track=1,2,3,4,5&shipments=1,2,3,4,5")
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(new ParameterizedTypeReference<ServerSentEvent<GenericMap>>() {
+            })
+            .getResponseBody()
+            .map(ServerSentEvent::event);
+        StepVerifier.create(events)
+            .expectNext("track", "shipments")
+            .verifyComplete();
+    }
+
+    /**
+     * 12 shipments are looked up in one POST.
+     * Expect one External API call per batch of 5 and every batch streamed back as its own line.
+     */
+    @Test
+    void testBatchEndpoint_StreamsEveryBatch() {
+        Mockito.when(externalApiClient.get(eq("shipments"), anyString()))
+            .thenAnswer(invocation -> {
+                var response = new GenericMap();
+                for (var value : invocation.getArgument(1, String.class).split(",")) {
+                    response.put(value, List.of("box"));
+                }
+                return Mono.just(response);
+            });
+        var values = IntStream.rangeClosed(1, 12).mapToObj(String::valueOf).toList();
+
+        var lines = webTestClient.post()
+            .uri("/aggregation/batch")
+            .bodyValue(Map.of("shipments", values, "unknown", List.of("1")))
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentType(MediaType.APPLICATION_NDJSON)
+            .returnResult(GenericMap.class)
+            .getResponseBody()
+            .collectList()
+            .block();
+
+        assertEquals(3, lines.size());
+        var shipments = new GenericMap();
+        lines.forEach(line -> shipments.putAll((Map<String, ?>) line.get("shipments")));
+        assertEquals(new HashSet<>(values), shipments.keySet());
+        verify(externalApiClient).get("shipments", "1,2,3,4,5");
+        verify(externalApiClient).get("shipments", "6,7,8,9,10");
+        verify(externalApiClient).get("shipments", "11,12");
+        queueManager.getApiQueues().values().forEach(queue -> assertTrue(queue.isEmpty()));
+    }
+
+    /**
+     * 22 shipments are looked up in one POST, while the External API takes 200 millis per call.
+     * Expect the last partial batch to be sent once one of the 4 batches in flight completes, even though it is not
+     * due.
+     */
+    @Test
+    void testBatchEndpoint_MoreBatchesThanInFlight() {
+        Mockito.when(externalApiClient.get(eq("shipments"), anyString()))
+            .thenAnswer(invocation -> {
+                var response = new GenericMap();
+                for (var value : invocation.getArgument(1, String.class).split(",")) {
+                    response.put(value, List.of("box"));
+                }
+                return Mono.just(response).delayElement(Duration.ofMillis(200));
+            });
+        var values = IntStream.range(0, 22).mapToObj(value -> "v" + value).toList();
+
+        var lines = webTestClient.post()
+            .uri("/aggregation/batch")
+            .bodyValue(Map.of("shipments", values))
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(GenericMap.class)
+            .getResponseBody()
+            .collectList()
+            .block(Duration.ofSeconds(10));
+
+        assertEquals(5, lines.size());
+        var shipments = new GenericMap();
+        lines.forEach(line -> shipments.putAll((Map<String, ?>) line.get("shipments")));
+        assertEquals(new HashSet<>(values), shipments.keySet());
+        verify(externalApiClient).get("shipments", "v20,v21");
+        queueManager.getApiQueues().values().forEach(queue -> assertTrue(queue.isEmpty()));
+    }
+
+    /**
+     * 40 track values are submitted at once, while the External API takes 100 millis per call.
+     * Expect 8 calls of 5 values, since a flush never sends more than the batch size.
+     */
+    @Test
+    void testFlushRespectsBatchSize() {
+        Mockito.when(externalApiClient.get(eq("track"), anyString()))
+            .thenAnswer(invocation -> {
+                var response = new GenericMap();
+                for (var value : invocation.getArgument(1, String.class).split(",")) {
+                    response.put(value, "NEW");
+                }
+                return Mono.just(response).delayElement(Duration.ofMillis(100));
+            });
+        var values = IntStream.range(0, 40).mapToObj(value -> "t" + value).toList();
+
+        var response = batchDispatcher.submit("track", values).block(Duration.ofSeconds(10));
+
+        assertEquals(new HashSet<>(values), response.keySet());
+        var captor = ArgumentCaptor.forClass(String.class);
+        verify(externalApiClient, times(8)).get(eq("track"), captor.capture());
+        captor.getAllValues().forEach(batch -> assertEquals(5, batch.split(",").length));
+        queueManager.getApiQueues().values().forEach(queue -> assertTrue(queue.isEmpty()));
+    }
+
+    /**
+     * Second request overlaps with the batch of the first one while it is in flight.
+     * Expect only the new values to be requested, and each request to get exactly its values.
+     */
+    @Test
+    void testOverlappingRequestJoinsInFlightBatch() {
+        Mockito.when(externalApiClient.get(eq("track"), anyString()))
+            .thenAnswer(invocation -> Mono.just(statuses(invocation.getArgument(1, String.class)))
+                .delayElement(Duration.ofMillis(300)));
+
+        var first = batchDispatcher.submit("track", List.of("o1", "o2", "o3", "o4", "o5"));
+        first.subscribe();
+        var second = batchDispatcher.submit("track", List.of("o4", "o5", "o6", "o7", "o8", "o9", "o10"));
+
+        assertEquals(statuses("o4,o5,o6,o7,o8,o9,o10"), second.block(Duration.ofSeconds(5)));
+        assertEquals(statuses("o1,o2,o3,o4,o5"), first.block(Duration.ofSeconds(5)));
+        verify(externalApiClient).get("track", "o1,o2,o3,o4,o5");
+        verify(externalApiClient).get("track", "o6,o7,o8,o9,o10");
+        verify(externalApiClient, times(2)).get(anyString(), anyString());
+    }
+
+    /**
+     * A request for the same values arrives while the response of their batch is being delivered.
+     * Expect it to be answered by that response instead of causing a second call.
+     */
+    @Test
+    void testRequestArrivingOnCompletionJoinsBatch() {
+        var values = List.of("c1", "c2", "c3", "c4", "c5");
+        var late = new CompletableFuture<Mono<GenericMap>>();
+        Mockito.when(externalApiClient.get(eq("track"), anyString()))
+            .thenAnswer(invocation -> Mono.just(statuses(invocation.getArgument(1, String.class)))
+                .doOnNext(response -> late.complete(batchDispatcher.submit("track", values))));
+
+        var first = batchDispatcher.submit("track", values).block(Duration.ofSeconds(5));
+
+        assertEquals(statuses("c1,c2,c3,c4,c5"), first);
+        assertEquals(first, late.join().block(Duration.ofSeconds(5)));
+        verify(externalApiClient, times(1)).get(anyString(), anyString());
+        queueManager.getApiQueues().values().forEach(queue -> assertTrue(queue.isEmpty()));
+    }
+
+    /**
+     * Queue never reaches size 5 and the request only has 1 second.
+     * Expect the pricing section to be null after the deadline, and the value to be left out of the next batch
+     * since nobody waits on it any more.
+     */
+    @Test
+    void testExpiredRequest() {
+        var start = System.currentTimeMillis();
+        webTestClient.get()
+            .uri("/aggregation?pricing=XX")
+            .header(Deadline.HEADER, "1000")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(GenericMap.class)
+            .value(response -> assertEquals(Collections.singletonMap("pricing", null), response));
+        var elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(elapsed >= 1000 && elapsed < 5000);
+        batchDispatcher.flush("pricing");
+        verify(externalApiClient, never()).get(eq("pricing"), anyString());
+        queueManager.getApiQueues().values().forEach(queue -> assertTrue(queue.isEmpty()));
+    }
+
+    private static GenericMap statuses(String values) {
+        var response = new GenericMap();
+        for (var value : values.split(",")) {
+            response.put(value, "NEW");
+        }
+        return response;
+    }
+
+    private static GenericMap section(String apiName, GenericMap response) {
+        var section = new GenericMap();
+        section.put(apiName, response);
+        return section;
+    }
+
     private void sleep(int millis) {
         try {
             Thread.sleep(millis);
@@ -1,6 +1,8 @@
 package com.kougianos.aggregator.service;
 
+import com.kougianos.aggregator.dto.Deadline;
 import com.kougianos.aggregator.dto.GenericMap;
+import com.kougianos.aggregator.dto.Priority;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +17,8 @@ import reactor.core.publisher.Mono;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -82,4 +86,50 @@ class SchedulerEnabledIT {
 
     }
 
+    /**
+     * Queue has not reached size 5 and the linger is 5 seconds.
+     * Expect a high priority request to be answered without waiting for the linger.
+     */
+    @Test
+    void testHighPriorityFlushesRightAway() {
+        var pricingResponse = new GenericMap();
+        pricingResponse.put("NL", 14.24);
+        Mockito.when(externalApiClient.get("pricing", "NL")).thenReturn(Mono.just(pricingResponse));
+
+        var start = Instant.now();
+        webTestClient.get()
+            .uri("/aggregation?pricing=NL")
+            .header(Priority.HEADER, "high")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(GenericMap.class)
+            .value(response -> assertEquals(Map.of("pricing", pricingResponse), response));
+
+        assertTrue(Duration.between(start, Instant.now()).toMillis() < 4000);
+        assertTrue(queueManager.get("pricing").isEmpty());
+    }
+
+    /**
+     * Queue has not reached size 5 and the linger is 5 seconds, the request only has 3 seconds.
+     * Expect the batch to be sent 2 seconds ahead of the deadline.
+     */
+    @Test
+    void testBatchIsSentBeforeDeadline() {
+        var shipmentsResponse = new GenericMap();
+        shipmentsResponse.put("1", List.of("box"));
+        Mockito.when(externalApiClient.get("shipments", "1")).thenReturn(Mono.just(shipmentsResponse));
+
+        var start = Instant.now();
+        webTestClient.get()
+            .uri("/aggregation?shipments=1")
+            .header(Deadline.HEADER, "3000")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(GenericMap.class)
+            .value(response -> assertEquals(Map.of("shipments", shipmentsResponse), response));
+
+        assertTrue(Duration.between(start, Instant.now()).toMillis() < 3000);
+        assertTrue(queueManager.get("shipments").isEmpty());
+    }
+
 }
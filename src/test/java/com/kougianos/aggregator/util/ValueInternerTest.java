@@ -0,0 +1,30 @@
+package com.kougianos.aggregator.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueInternerTest {
+
+    @Test
+    void testReturnsCanonicalInstance() {
+        var first = ValueInterner.intern("117347282,109347263", 0, 9);
+        var second = ValueInterner.intern("109347263,117347282", 10, 19);
+
+        assertEquals("117347282", first);
+        assertSame(first, second);
+        assertSame(first, ValueInterner.intern(new String("117347282")));
+    }
+
+    @Test
+    void testSplitDistinctInternsValues() {
+        var first = ServiceUtils.splitDistinct("NL,CN,NL");
+        var second = ServiceUtils.splitDistinct("CN,DE");
+
+        assertEquals(List.of("NL", "CN"), first);
+        assertSame(first.get(1), second.get(0));
+    }
+
+}